@@ -0,0 +1,358 @@
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks of the hot paths of the auction protocol, to be run before and after a change:
+ * CFP construction (SendCFP), bid decoding and best-bid selection (ReceiveBids),
+ * catalogue operations, the bid decision of a bidder (ReceiveCFPAsComp), the clearing of bundles
+ * the receiving of deep mailboxes (MessageDispatcher), the bidders of a BidderHost and the LotScheduler.
+ * Run with: java -cp jade.jar:<classes> AuctionBenchmarks [-wi 3 -i 5 -t 1000]
+ */
+public class AuctionBenchmarks {
+
+    private static final int[] BIDDER_COUNTS = {10, 1000};
+    private static final int CATALOGUE_SIZE = 10000;
+    private static final int[] MAILBOX_DEPTHS = {100, 1000, 10000};
+
+    public static void main(String[] args) {
+        Bench bench = new Bench(args);
+        for (int n : BIDDER_COUNTS) {
+            sendCFP(bench, n);
+        }
+        for (int n : BIDDER_COUNTS) {
+            receiveBids(bench, n);
+        }
+        catalogue(bench);
+        bidDecision(bench);
+        winnerDetermination(bench);
+        for (int depth : MAILBOX_DEPTHS) {
+            mailbox(bench, depth);
+        }
+        bidderHost(bench);
+        lotScheduler(bench);
+        Bench.printSink();
+    }
+
+    private static AID[] bidders(int n) {
+        AID[] bidders = new AID[n];
+        for (int i = 0; i < n; i++) {
+            bidders[i] = new AID("bidder" + i + "@bench", AID.ISGUID);
+        }
+        return bidders;
+    }
+
+    private static void sendCFP(Bench bench, int n) {
+        Lot lot = new Lot("blind-bid-1", "Antique Vase", 1200, 1250, bidders(n));
+        for (BidCodec codec : new BidCodec[] {BidCodecs.STRING, BidCodecs.BINARY}) {
+            bench.run("SendCFP " + codec.getLanguage() + " (" + n + " bidders)",
+                    () -> Bench.consume(Auctioneer.createCFP(lot, codec, 0)));
+        }
+    }
+
+    private static void receiveBids(Bench bench, int n) {
+        AID[] bidders = bidders(n);
+        Random rn = new Random(42);
+        for (BidCodec codec : new BidCodec[] {BidCodecs.STRING, BidCodecs.BINARY}) {
+            ACLMessage[] bids = new ACLMessage[n];
+            for (int i = 0; i < n; i++) {
+                bids[i] = new ACLMessage(ACLMessage.PROPOSE);
+                bids[i].setSender(bidders[i]);
+                codec.encodeBid(bids[i], 1200 + rn.nextInt(1000));
+            }
+            // One operation receives the bids of a whole lot
+            bench.run("ReceiveBids " + codec.getLanguage() + " (" + n + " bids/lot)", () -> {
+                Lot lot = new Lot("blind-bid-1", "Antique Vase", 1200, 1250, bidders);
+                for (ACLMessage msg : bids) {
+                    lot.offer(msg.getSender(), BidCodecs.forMessage(msg).decodeBid(msg));
+                }
+                Bench.consume(lot.getBestPrice());
+            });
+        }
+
+        // Second pricing of 10 identical units keeps the 11 highest bids
+        int[] prices = new int[n];
+        for (int i = 0; i < n; i++) {
+            prices[i] = 1200 + rn.nextInt(1000);
+        }
+        bench.run("ReceiveBids top-11 (" + n + " bids/lot)", () -> {
+            Lot lot = new Lot("blind-bid-1", "Antique Vase", 1200, 1250, bidders);
+            lot.trackTopBids(10, 11);
+            for (int i = 0; i < n; i++) {
+                lot.offer(bidders[i], prices[i]);
+            }
+            lot.getTopBids().sort();
+            Bench.consume(lot.getTopBids().getPrice(10));
+        });
+    }
+
+    private static void catalogue(Bench bench) {
+        Hashtable<String, Auctioneer.ItemInfo> catalogue = new Hashtable<>();
+        String[] names = new String[CATALOGUE_SIZE];
+        for (int i = 0; i < CATALOGUE_SIZE; i++) {
+            names[i] = "Item " + i;
+            catalogue.put(names[i], new Auctioneer.ItemInfo(1000 + i, 1100 + i));
+        }
+        int[] next = {0};
+        // Sell the first item and list a new one, as the auctioneer does for every lot
+        bench.run("Hashtable first/get/remove/put (" + CATALOGUE_SIZE + " items)", () -> {
+            String first = catalogue.keySet().iterator().next();
+            Auctioneer.ItemInfo info = catalogue.get(first);
+            catalogue.remove(first);
+            String name = names[next[0]++ % CATALOGUE_SIZE];
+            catalogue.put(name, info);
+            Bench.consume(info.getInitialPrice());
+        });
+
+        LotCatalogue lots = new LotCatalogue(LotCatalogue.Order.FIFO, 100);
+        for (int i = 0; i < CATALOGUE_SIZE; i++) {
+            lots.add(names[i], 1000 + i, 1100 + i, 0, 0);
+        }
+        int[] listed = {CATALOGUE_SIZE};
+        bench.run("LotCatalogue poll/remove/add (" + CATALOGUE_SIZE + " items)", () -> {
+            int slot = lots.pollNext(0);
+            int price = lots.getInitialPrice(slot);
+            lots.remove(lots.getName(slot));
+            lots.add("Item " + listed[0]++, price, price + 100, 0, 0);
+            Bench.consume(price);
+        });
+    }
+
+    /**
+     * The auctioneer with a mailbox of replies to 100 open lots, and a few messages of the other
+     * behaviours (e.g. catalogue requests, DF notifications). One operation receives them all.
+     */
+    private static void mailbox(Bench bench, int depth) {
+        int lots = 100;
+        AID[] bidders = bidders(lots);
+        Random rn = new Random(42);
+        List<ACLMessage> mail = new ArrayList<>();
+        for (int i = 0; i < depth; i++) {
+            int kind = rn.nextInt(100);
+            ACLMessage msg = new ACLMessage(kind == 0 ? ACLMessage.REQUEST : kind == 1 ? ACLMessage.INFORM
+                    : kind < 10 ? ACLMessage.REFUSE : ACLMessage.PROPOSE);
+            msg.setSender(bidders[rn.nextInt(lots)]);
+            msg.setConversationId(kind == 1 ? "subscription" : "blind-bid-" + rn.nextInt(lots));
+            mail.add(msg);
+        }
+
+        // Before: every behaviour receives with its template, i.e. scans the mailbox from its head
+        // (as Agent.receive(MessageTemplate) does) until a match, each time the scheduler runs it
+        List<Predicate<ACLMessage>> templates = List.of(
+                msg -> msg.getPerformative() == ACLMessage.PROPOSE || msg.getPerformative() == ACLMessage.REFUSE,
+                msg -> msg.getPerformative() == ACLMessage.REQUEST,
+                msg -> msg.getPerformative() == ACLMessage.INFORM);
+        bench.run("receive(template), " + templates.size() + " behaviours (" + depth + " messages)", () -> {
+            LinkedList<ACLMessage> queue = new LinkedList<>(mail);
+            long received = 0;
+            while (!queue.isEmpty()) {
+                for (Predicate<ACLMessage> template : templates) {
+                    Iterator<ACLMessage> it = queue.iterator();
+                    while (it.hasNext()) {
+                        if (template.test(it.next())) {
+                            it.remove();
+                            received++;
+                            break;
+                        }
+                    }
+                }
+            }
+            Bench.consume(received);
+        });
+
+        // After: the mailbox is drained once and every message goes to the handler of its lot
+        MessageDispatcher dispatcher = new MessageDispatcher(null);
+        long[] handled = {0};
+        MessageDispatcher.Handler handler = msg -> {
+            handled[0]++;
+            return true;
+        };
+        for (int i = 0; i < lots; i++) {
+            dispatcher.register("blind-bid-" + i, handler);
+        }
+        dispatcher.on(ACLMessage.REQUEST, handler);
+        dispatcher.on(ACLMessage.INFORM, handler);
+        bench.run("MessageDispatcher, " + lots + " lots (" + depth + " messages)", () -> {
+            ArrayDeque<ACLMessage> queue = new ArrayDeque<>(mail);
+            ACLMessage msg;
+            while ((msg = queue.poll()) != null) {
+                dispatcher.dispatch(msg);
+            }
+            Bench.consume(handled[0]);
+        });
+    }
+
+    /**
+     * 100k logical bidders of a BidderHost against 100k BidderComp objects: startup time, heap per
+     * bidder and the decision of a CFP. A BidderComp agent also has a thread and the structures of
+     * the platform, which are not counted here.
+     */
+    private static void bidderHost(Bench bench) {
+        int n = 100000;
+        PriceDistribution budget = PriceDistribution.parse("uniform:1000:2000");
+        Supplier<Object> pool = () -> new BidderPool(n, budget, BiddingStrategies.INCREMENTAL, 42);
+        Supplier<Object> agents = () -> {
+            BidderComp[] bidders = new BidderComp[n];
+            for (int i = 0; i < n; i++) {
+                bidders[i] = new BidderComp(1500, BiddingStrategies.INCREMENTAL, i);
+            }
+            return bidders;
+        };
+        bench.run("BidderPool startup (" + n + " bidders)", () -> Bench.consume(pool.get()));
+        bench.run("BidderComp startup (" + n + " bidders)", () -> Bench.consume(agents.get()));
+        printHeap("BidderPool heap", pool, n);
+        printHeap("BidderComp heap", agents, n);
+
+        BidderPool bidders = (BidderPool) pool.get();
+        bench.run("BidderPool CFP decision (" + n + " bidders)",
+                () -> Bench.consume(bidders.bestBid(1200, ForkJoinPool.commonPool())));
+    }
+
+    /**
+     * 1000 lots with a step ready each, then 10 high-value lots to close: the steps run before the
+     * last of the closes with the same weight for every lot (the order of a round robin) and with a
+     * weight of 4 for the high-value lots, and the cost of submitting and running a step.
+     * Every lot has a deadline and is closed before it: no timer must be left.
+     */
+    private static void lotScheduler(Bench bench) {
+        int lots = 1000;
+        Lot[] normal = new Lot[lots];
+        for (int i = 0; i < lots; i++) {
+            normal[i] = new Lot("blind-bid-" + i, "Lot " + i, 1000, 1100, bidders(0));
+        }
+        for (int weight : new int[] {1, 4}) {
+            LotScheduler scheduler = new LotScheduler(null, AuctionClock.SYSTEM, Integer.MAX_VALUE);
+            long[] ran = {0, 0};
+            long deadline = System.currentTimeMillis() + 60000;
+            for (Lot lot : normal) {
+                scheduler.at(lot, deadline, () -> ran[0]++);
+                scheduler.submit(lot, () -> {
+                    ran[0]++;
+                    scheduler.cancel(lot);
+                });
+            }
+            for (int i = 0; i < 10; i++) {
+                Lot lot = new Lot("blind-bid-high-" + i, "Painting " + i, 100000, 110000, bidders(0));
+                lot.setSchedule(0, weight);
+                scheduler.at(lot, deadline, () -> ran[0]++);
+                scheduler.submit(lot, () -> {
+                    ran[1] = ran[0]++;
+                    scheduler.cancel(lot);
+                });
+            }
+            scheduler.action();
+            if (scheduler.getTimers() != 0) {
+                throw new IllegalStateException(scheduler.getTimers() + " timers left after every lot closed");
+            }
+            System.out.printf("%-45s %12d steps before the last close, %d timers left%n",
+                    "LotScheduler, high-value weight " + weight, ran[1], scheduler.getTimers());
+        }
+
+        LotScheduler scheduler = new LotScheduler(null, AuctionClock.SYSTEM, Integer.MAX_VALUE);
+        long[] ran = {0};
+        bench.run("LotScheduler submit and run (" + lots + " lots)", () -> {
+            for (Lot lot : normal) {
+                scheduler.submit(lot, () -> ran[0]++);
+            }
+            scheduler.action();
+            Bench.consume(ran[0]);
+        });
+    }
+
+    private static void printHeap(String name, Supplier<Object> make, int n) {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        Object o = make.get();
+        System.gc();
+        long bytes = Math.max(1, (rt.totalMemory() - rt.freeMemory() - before) / n);
+        Bench.consume(o);
+        System.out.printf("%-45s %12d bytes/bidder, %d bidders/GB%n", name, bytes, (1L << 30) / bytes);
+    }
+
+    private static void winnerDetermination(Bench bench) {
+        int n = 16;
+        String[] names = new String[n];
+        int[] initialPrices = new int[n];
+        int[] reservePrices = new int[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = "Item " + i;
+            initialPrices[i] = 1000;
+            reservePrices[i] = 1100;
+        }
+        Random rn = new Random(42);
+        for (int bidderCount : new int[] {10, 100}) {
+            Bundle bundle = new Bundle(names, initialPrices, reservePrices);
+            for (AID bidder : bidders(bidderCount)) {
+                List<BundleBid> bids = new ArrayList<>();
+                for (int k = 0; k < 4; k++) {
+                    int size = 1 + rn.nextInt(4);
+                    int[] items = rn.ints(0, n).distinct().limit(size).toArray();
+                    bids.add(new BundleBid(bidder, items, size * (1000 + rn.nextInt(400))));
+                }
+                bundle.addBids(bids);
+            }
+            bench.run("WinnerDetermination " + n + " items, " + bidderCount + " bidders (100 ms budget)",
+                    () -> Bench.consume(new WinnerDetermination(bundle, ForkJoinPool.commonPool()).solve(100).getRevenue()));
+        }
+    }
+
+    private static void bidDecision(Bench bench) {
+        for (String name : new String[] {"truthful", "incremental", "sniping"}) {
+            BidderComp bidder = new BidderComp(1500, BiddingStrategies.forName(name));
+            bench.run("ReceiveCFPAsComp decision " + name, () -> Bench.consume(bidder.bidFor(1200)));
+        }
+
+        // The old decision allocated a Random per CFP
+        BiddingStrategy incremental = BiddingStrategies.INCREMENTAL;
+        bench.run("incremental decision (new Random per CFP)",
+                () -> Bench.consume(incremental.bid(1200, 0, 0, 1440, 1500, new Random())));
+
+        // Many open lots priced in one call over primitive arrays
+        int n = 1024;
+        int[] initialPrices = new int[n];
+        int[] highestBids = new int[n];
+        int[] valuations = new int[n];
+        int[] out = new int[n];
+        SplittableRandom rn = new SplittableRandom(42);
+        for (int i = 0; i < n; i++) {
+            initialPrices[i] = 1000 + rn.nextInt(1000);
+            highestBids[i] = rn.nextBoolean() ? initialPrices[i] + rn.nextInt(200) : 0;
+            valuations[i] = initialPrices[i] + initialPrices[i] / 5;
+        }
+        for (String name : new String[] {"truthful", "incremental", "sniping"}) {
+            BiddingStrategy strategy = BiddingStrategies.forName(name);
+            checkBidBatch(name, strategy, initialPrices, highestBids, valuations, n);
+            bench.run("bidBatch " + name + " (" + n + " lots/op)", () -> {
+                strategy.bidBatch(initialPrices, highestBids, valuations, n, 0, 1500, rn, out);
+                Bench.consume(out[n - 1]);
+            });
+        }
+
+        // Reserve at PROPOSE time, release on loss
+        BidderLedger ledger = new BidderLedger(Long.MAX_VALUE / 2);
+        bench.run("BidderLedger reserve/release", () -> {
+            ledger.reserve("blind-bid-1", 1250);
+            ledger.release("blind-bid-1");
+        });
+    }
+
+    // bidBatch must give the same bids as bid() lot by lot for the same seed, with and without the funds for every lot
+    private static void checkBidBatch(String name, BiddingStrategy strategy, int[] initialPrices, int[] highestBids, int[] valuations, int n) {
+        int[] batch = new int[n];
+        for (long available : new long[] {1500, 1200}) {
+            strategy.bidBatch(initialPrices, highestBids, valuations, n, 0, available, new SplittableRandom(7), batch);
+            SplittableRandom rn = new SplittableRandom(7);
+            for (int i = 0; i < n; i++) {
+                int bid = strategy.bid(initialPrices[i], highestBids[i], 0, valuations[i], available, rn);
+                if (bid != batch[i]) {
+                    throw new IllegalStateException("bidBatch " + name + " bids " + batch[i] + " for lot " + i + ", bid() " + bid);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Small benchmark harness in the spirit of JMH: a number of warmup iterations
+ * followed by measured iterations of a fixed duration, reported in ns/op with
+ * the spread between iterations.
+ * Settings are read from the command line: -wi (warmup iterations), -i (iterations)
+ * and -t (duration of an iteration in ms).
+ */
+public class Bench {
+
+    private int warmupIterations = 3;
+    private int iterations = 5;
+    private long iterationMillis = 1000;
+
+    // Results are added here so the JIT cannot remove the benchmarked code
+    private static long sink = 0;
+
+    public static void consume(long value) {
+        sink += value;
+    }
+
+    public static void consume(Object value) {
+        sink += System.identityHashCode(value) & 1;
+    }
+
+    public Bench(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-wi":
+                    warmupIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-t":
+                    iterationMillis = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("Ignoring option " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Run a benchmark and print its average time per operation
+     */
+    public void run(String name, Runnable op) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(op);
+        }
+        double[] results = new double[iterations];
+        double sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            results[i] = iteration(op);
+            sum += results[i];
+        }
+        double mean = sum / iterations;
+        double var = 0;
+        for (double r : results) {
+            var += (r - mean) * (r - mean);
+        }
+        double error = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+        System.out.printf("%-45s %12.1f +- %8.1f ns/op%n", name, mean, error);
+    }
+
+    // One iteration: run batches of the operation until the duration is over
+    private double iteration(Runnable op) {
+        long deadline = System.nanoTime() + iterationMillis * 1000000;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                op.run();
+            }
+            ops += 100;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (double) (now - start) / ops;
+    }
+
+    public static void printSink() {
+        System.out.println("(sink " + sink + ")");
+    }
+}
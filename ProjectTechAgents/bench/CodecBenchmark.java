@@ -0,0 +1,34 @@
+import jade.lang.acl.ACLMessage;
+
+/**
+ * Microbenchmark of the bid codecs against the original comma-split format.
+ * Every operation encodes a CFP and decodes its item name and price, as a bidder does.
+ * Run with: java -cp jade.jar:<classes> CodecBenchmark [-wi 3 -i 5 -t 1000]
+ */
+public class CodecBenchmark {
+
+    private static final String ITEM = "Antique Vase";
+    private static final int PRICE = 1200;
+
+    public static void main(String[] args) {
+        Bench bench = new Bench(args);
+        bench.run("split (original)", CodecBenchmark::splitFormat);
+        bench.run("string", () -> codec(BidCodecs.STRING));
+        bench.run("length-prefixed", () -> codec(BidCodecs.LENGTH_PREFIXED));
+        bench.run("binary", () -> codec(BidCodecs.BINARY));
+        Bench.printSink();
+    }
+
+    private static void splitFormat() {
+        ACLMessage cfp = new ACLMessage(ACLMessage.CFP);
+        cfp.setContent(ITEM + "," + PRICE);
+        String[] parts = cfp.getContent().split(",");
+        Bench.consume(parts[0].length() + Integer.parseInt(parts[1]));
+    }
+
+    private static void codec(BidCodec codec) {
+        ACLMessage cfp = new ACLMessage(ACLMessage.CFP);
+        codec.encodeOffer(cfp, ITEM, PRICE);
+        Bench.consume(codec.decodeItemName(cfp).length() + codec.decodePrice(cfp));
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * The time of the auction. The system clock by default; in a deterministic simulation a
+ * VirtualClock, whose time only moves when the simulation advances it (see MarketSimulator).
+ */
+public interface AuctionClock {
+
+    // Wall-clock time (ms since epoch), for deadlines and start times
+    long millis();
+
+    // Monotonic time (ns), for latencies
+    long nanos();
+
+    AuctionClock SYSTEM = new AuctionClock() {
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+
+        public long nanos() {
+            return System.nanoTime();
+        }
+    };
+}
@@ -0,0 +1,317 @@
+import java.util.SplittableRandom;
+
+/**
+ * Run-time settings of the auctioneer.
+ * They are passed as agent arguments in the form "key=value", e.g. "lots=8".
+ */
+public class AuctionConfig {
+
+    // The maximum number of lots that are auctioned at the same time
+    public int maxConcurrentLots = 1;
+
+    // The period of the ticker that opens new lots (ms)
+    public long tickPeriod = 10000;
+
+    // The number of rounds an unsold item goes through before it is withdrawn
+    public int maxRounds = 3;
+
+    // Start the next lot as soon as the previous one resolves instead of waiting for the ticker
+    public boolean eventDriven = false;
+
+    // How long a lot waits for replies before it is closed with the bids received so far (ms)
+    public long bidDeadline = 5000;
+
+    // The steps of the lots run by the LotScheduler between two turns of the other behaviours,
+    // and the share of the lots of items worth highValue or more (weight 1 for the others; 0 for no high-value lots)
+    public int quantum = 32;
+    public int highValue = 0;
+    public int highValueWeight = 4;
+
+    // The format of the auctions ("sealed", "english" or "dutch"), see AuctionFormat
+    public AuctionFormat format = AuctionFormat.SEALED;
+
+    // What the winners of a sealed-bid lot pay: "first" (their own bid) or "second" (the highest
+    // losing bid, or the minimum price if there is none: a Vickrey auction for one unit,
+    // a uniform-price auction for several)
+    public String pricing = "first";
+
+    // The price change of every round of a clock auction, and how long a round waits for replies (ms)
+    public int priceStep = 25;
+    public long roundDeadline = 250;
+
+    // The opening price of a Dutch auction, in percent of the initial price of the item
+    public int dutchStart = 150;
+
+    // The number of items put on auction together as a bundle (0 for one lot per item),
+    // and the time the winner determination of a bundle may take (ms, on the fork-join pool:
+    // the agent goes on with the other lots meanwhile)
+    public int bundleSize = 0;
+    public long wdpBudget = 100;
+
+    // The content codec of the auction messages ("string", "lp" or "binary"), see getCodec()
+    public String codec = null;
+
+    // The order in which the catalogue items are put on auction ("fifo", "priority" or "scheduled")
+    public LotCatalogue.Order order = LotCatalogue.Order.FIFO;
+
+    // The width of the price bands of the catalogue indexes
+    public int bandWidth = 100;
+
+    // How bids are acknowledged: "each" (one INFORM per PROPOSE), "batch" (one multicast
+    // INFORM per lot when its bidding closes) or "none" (the result notice is enough)
+    public String ack = "each";
+
+    // The journal file of lots, bids and awards (none if null), replayed at startup
+    public String journal = null;
+
+    // Force the journal to disk after this many records, or every syncInterval ms
+    public int groupCommit = 256;
+    public long syncInterval = 50;
+
+    // The snapshot of the catalogue, open lots and bidders (none if null), loaded at startup and
+    // saved every snapshotInterval ms and on shutdown, see MarketSnapshot
+    public String snapshot = null;
+    public long snapshotInterval = 60000;
+
+    // The shard this auctioneer is (0 to shards - 1) and the coordinator it reports to,
+    // if the catalogue is partitioned over several auctioneers (see AuctionCoordinator).
+    // Every shard then gets its own journal, snapshot, metrics and results files (see forShard).
+    public int shard = 0;
+    public int shards = 1;
+    public String coordinator = null;
+
+    // Show the GUI (it is never shown on a headless JVM)
+    public boolean gui = true;
+
+    // Do not open lots before this many bidders are registered
+    public int minBidders = 1;
+
+    // Number of generated items put in the catalogue at startup, and their prices
+    // (the reserve price is the initial price plus a sample of the reserve distribution)
+    public int items = 0;
+    public PriceDistribution priceDistribution = PriceDistribution.parse("uniform:800:1500");
+    public PriceDistribution reserveDistribution = PriceDistribution.parse("uniform:0:200");
+
+    // The number of identical units of every generated item
+    public PriceDistribution unitsDistribution = PriceDistribution.parse("fixed:1");
+
+    // The file the metrics are dumped to every metricsInterval ms (none if null), see AuctionMetrics
+    public String metricsFile = null;
+    public long metricsInterval = 10000;
+
+    // The items added to the catalogue per action of the loader, see CatalogueImport
+    public int importBatch = 500;
+
+    // Where the results of the lots are written (<results>-1.log, ..., none if null), the size of
+    // the files (bytes), and how many results a subscriber can fall behind, see AuctionResults
+    public String resultsFile = null;
+    public long resultsRoll = 64L * 1024 * 1024;
+    public int resultsBuffer = 1024;
+
+    // Deterministic mode: the seed of every random number generator of the auction (0 to draw them at random),
+    // see seedOf. The clock is only set by an offline simulation (see MarketSimulator).
+    public long seed = 0;
+    public AuctionClock clock = AuctionClock.SYSTEM;
+
+    // Print the final report and shut the platform down once the catalogue is sold out
+    public boolean exitWhenDone = false;
+
+    public static AuctionConfig fromArguments(Object[] args) {
+        AuctionConfig config = new AuctionConfig();
+        if (args == null) {
+            return config;
+        }
+        for (Object arg : args) {
+            String s = String.valueOf(arg);
+            int eq = s.indexOf('=');
+            if (eq < 0) {
+                AuctionLog.error("Ignoring argument " + s + " (expected key=value)");
+                continue;
+            }
+            config.set(s.substring(0, eq).trim(), s.substring(eq + 1).trim());
+        }
+        if (config.shards > 1) {
+            // The shards get the same arguments: keep them from writing to the same files
+            config.journal = forShard(config.journal, config.shard);
+            config.snapshot = forShard(config.snapshot, config.shard);
+            config.metricsFile = forShard(config.metricsFile, config.shard);
+            config.resultsFile = forShard(config.resultsFile, config.shard);
+        }
+        return config;
+    }
+
+    /**
+     * The file of the given shard: "auction.journal" becomes "auction-shard1.journal" (null stays null)
+     */
+    static String forShard(String file, int shard) {
+        if (file == null) {
+            return null;
+        }
+        int dot = file.lastIndexOf('.');
+        if (dot <= Math.max(file.lastIndexOf('/'), file.lastIndexOf('\\')) + 1) {
+            return file + "-shard" + shard;
+        }
+        return file.substring(0, dot) + "-shard" + shard + file.substring(dot);
+    }
+
+    /**
+     * The codec to use. Unless set, runs with parallel lots or event-driven rounds use the binary codec,
+     * the others keep the original string format.
+     */
+    public BidCodec getCodec() {
+        if (codec != null) {
+            return BidCodecs.forName(codec);
+        }
+        return maxConcurrentLots > 1 || eventDriven ? BidCodecs.BINARY : BidCodecs.STRING;
+    }
+
+    /**
+     * The seed of the generator of one agent (or other user) of a seeded run: every agent gets its
+     * own stream, which does not depend on how the agents are scheduled
+     */
+    public static long seedOf(long seed, String name) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + name.hashCode()).nextLong();
+    }
+
+    public void set(String key, String value) {
+        switch (key) {
+            case "lots":
+                maxConcurrentLots = Integer.parseInt(value);
+                break;
+            case "tick":
+                tickPeriod = Long.parseLong(value);
+                break;
+            case "rounds":
+                maxRounds = Integer.parseInt(value);
+                break;
+            case "mode":
+                eventDriven = value.equals("event");
+                break;
+            case "deadline":
+                bidDeadline = Long.parseLong(value);
+                break;
+            case "quantum":
+                quantum = Integer.parseInt(value);
+                break;
+            case "highValue":
+                highValue = Integer.parseInt(value);
+                break;
+            case "highValueWeight":
+                highValueWeight = Integer.parseInt(value);
+                break;
+            case "format":
+                format = AuctionFormat.valueOf(value.toUpperCase());
+                break;
+            case "pricing":
+                if (!value.equals("first") && !value.equals("second")) {
+                    throw new IllegalArgumentException("Unknown pricing " + value);
+                }
+                pricing = value;
+                break;
+            case "step":
+                priceStep = Integer.parseInt(value);
+                break;
+            case "roundDeadline":
+                roundDeadline = Long.parseLong(value);
+                break;
+            case "dutchStart":
+                dutchStart = Integer.parseInt(value);
+                break;
+            case "bundle":
+                bundleSize = Integer.parseInt(value);
+                break;
+            case "wdpBudget":
+                wdpBudget = Long.parseLong(value);
+                break;
+            case "codec":
+                codec = value;
+                break;
+            case "order":
+                order = LotCatalogue.Order.valueOf(value.toUpperCase());
+                break;
+            case "band":
+                bandWidth = Integer.parseInt(value);
+                if (bandWidth < 1) {
+                    throw new IllegalArgumentException("Band width must be at least 1, not " + value);
+                }
+                break;
+            case "ack":
+                if (!value.equals("each") && !value.equals("batch") && !value.equals("none")) {
+                    throw new IllegalArgumentException("Unknown ack mode " + value);
+                }
+                ack = value;
+                break;
+            case "journal":
+                journal = value;
+                break;
+            case "groupCommit":
+                groupCommit = Integer.parseInt(value);
+                break;
+            case "syncInterval":
+                syncInterval = Long.parseLong(value);
+                break;
+            case "snapshot":
+                snapshot = value;
+                break;
+            case "snapshotInterval":
+                snapshotInterval = Long.parseLong(value);
+                break;
+            case "shard":
+                shard = Integer.parseInt(value);
+                break;
+            case "shards":
+                shards = Integer.parseInt(value);
+                break;
+            case "coordinator":
+                coordinator = value;
+                break;
+            case "gui":
+                gui = Boolean.parseBoolean(value);
+                break;
+            case "minBidders":
+                minBidders = Integer.parseInt(value);
+                break;
+            case "items":
+                items = Integer.parseInt(value);
+                break;
+            case "price":
+                priceDistribution = PriceDistribution.parse(value);
+                break;
+            case "reserve":
+                reserveDistribution = PriceDistribution.parse(value);
+                break;
+            case "units":
+                unitsDistribution = PriceDistribution.parse(value);
+                break;
+            case "metrics":
+                metricsFile = value;
+                break;
+            case "metricsInterval":
+                metricsInterval = Long.parseLong(value);
+                break;
+            case "results":
+                resultsFile = value;
+                break;
+            case "resultsRoll":
+                resultsRoll = Long.parseLong(value);
+                break;
+            case "resultsBuffer":
+                resultsBuffer = Integer.parseInt(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            case "importBatch":
+                importBatch = Integer.parseInt(value);
+                break;
+            case "log":
+                AuctionLog.setLevel(AuctionLog.Level.valueOf(value.toUpperCase()));
+                break;
+            case "exit":
+                exitWhenDone = Boolean.parseBoolean(value);
+                break;
+            default:
+                AuctionLog.error("Unknown auction setting " + key);
+        }
+    }
+}
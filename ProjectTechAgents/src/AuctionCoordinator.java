@@ -0,0 +1,166 @@
+import jade.core.Agent;
+import jade.core.AID;
+import jade.core.behaviours.*;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.lang.acl.UnreadableException;
+import jade.wrapper.ControllerException;
+
+/**
+ * Coordinator of a sharded auction.
+ * Each shard is an Auctioneer agent named "shard-<i>" that owns the items whose name hashes to it,
+ * so lots of different shards run on different threads (and possibly containers).
+ * The coordinator routes catalogue updates to the owning shard and merges the reports of the shards.
+ * Arguments: "shards=N" and optionally "exit=true" to kill the platform once every shard is done.
+ */
+public class AuctionCoordinator extends Agent {
+
+    // The protocol of the catalogue updates sent to the shards
+    public static final String CATALOGUE_UPDATE = "catalogue-update";
+
+    // The protocol of the reports sent by the shards
+    public static final String SHARD_REPORT = "shard-report";
+
+    // The shards, indexed by shard number
+    private AID[] shards;
+
+    // The last report of every shard
+    private ShardReport[] reports;
+
+    private boolean exitWhenDone = false;
+
+    /**
+     * The shard owning an item
+     */
+    public static int shardOf(String itemName, int shardCount) {
+        return Math.floorMod(itemName.hashCode(), shardCount);
+    }
+
+    public static String shardName(int shard) {
+        return "shard-" + shard;
+    }
+
+    @Override
+    protected void setup() {
+        int shardCount = 1;
+        Object[] args = getArguments();
+        if (args != null) {
+            for (Object arg : args) {
+                String s = String.valueOf(arg);
+                if (s.startsWith("shards=")) {
+                    shardCount = Integer.parseInt(s.substring("shards=".length()));
+                } else if (s.equals("exit=true")) {
+                    exitWhenDone = true;
+                }
+            }
+        }
+        shards = new AID[shardCount];
+        reports = new ShardReport[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new AID(shardName(i), AID.ISLOCALNAME);
+        }
+        AuctionLog.info("Coordinator " + getAID().getName() + " is ready with " + shardCount + " shards");
+
+        addBehaviour(new ReceiveShardReports(this));
+        addBehaviour(new TickerBehaviour(this, 10000) {
+            protected void onTick() {
+                AuctionLog.info("All shards: " + mergedReport());
+            }
+        });
+    }
+
+    /**
+     * Add an item for sale to the shard that owns it
+     */
+    public void updateCatalogue(final String title, final int price, final int rprice) {
+        updateCatalogue(title, price, rprice, 0, 0);
+    }
+
+    public void updateCatalogue(final String title, final int price, final int rprice, final int priority, final long startTime) {
+        updateCatalogue(title, price, rprice, priority, startTime, 1);
+    }
+
+    /**
+     * Add an item with several identical units to the shard that owns it
+     */
+    public void updateCatalogue(final String title, final int price, final int rprice, final int priority, final long startTime, final int units) {
+        addBehaviour(new OneShotBehaviour() {
+            public void action() {
+                ACLMessage request = new ACLMessage(ACLMessage.REQUEST);
+                request.addReceiver(shards[shardOf(title, shards.length)]);
+                request.setProtocol(CATALOGUE_UPDATE);
+                BidCodecs.BINARY.encodeOffer(request, title, price);
+                request.addUserDefinedParameter("reserve", String.valueOf(rprice));
+                request.addUserDefinedParameter("priority", String.valueOf(priority));
+                request.addUserDefinedParameter("start", String.valueOf(startTime));
+                request.addUserDefinedParameter("units", String.valueOf(units));
+                send(request);
+            }
+        });
+    }
+
+    public ShardReport mergedReport() {
+        ShardReport merged = new ShardReport();
+        for (ShardReport report : reports) {
+            if (report != null) {
+                merged.merge(report);
+            }
+        }
+        return merged;
+    }
+
+    private boolean allDone() {
+        for (ShardReport report : reports) {
+            if (report == null || !report.done) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keep the last report of every shard
+     */
+    class ReceiveShardReports extends CyclicBehaviour {
+
+        private AuctionCoordinator myAgent;
+
+        private final MessageTemplate mt = MessageTemplate.MatchProtocol(SHARD_REPORT);
+
+        public ReceiveShardReports(AuctionCoordinator agent) {
+            super(agent);
+            myAgent = agent;
+        }
+
+        public void action() {
+            ACLMessage msg = myAgent.receive(mt);
+            if (msg == null) {
+                block();
+                return;
+            }
+            try {
+                ShardReport report = (ShardReport) msg.getContentObject();
+                myAgent.reports[report.shard] = report;
+                if (report.done) {
+                    AuctionLog.info("Shard " + report.shard + " is done: " + report);
+                }
+            } catch (UnreadableException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            if (myAgent.exitWhenDone && myAgent.allDone()) {
+                ShardReport merged = myAgent.mergedReport();
+                AuctionLog.info("All shards are done: " + merged);
+                AuctionLog.info(merged.closeLatency.toHistogram().stripTrailing());
+                new Thread(() -> {
+                    try {
+                        getContainerController().getPlatformController().kill();
+                    } catch (ControllerException e) {
+                        e.printStackTrace();
+                    }
+                }).start();
+            }
+        }
+    }
+}
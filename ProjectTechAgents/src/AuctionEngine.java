@@ -0,0 +1,206 @@
+import jade.core.AID;
+
+import java.util.*;
+
+/**
+ * Keeps track of all the lots that are on auction.
+ * Open lots are keyed by conversation id so many of them can run in parallel.
+ */
+public class AuctionEngine {
+
+    private final AuctionConfig config;
+
+    // The open lots (maps the conversation id to the lot)
+    private final Map<String, Lot> openLots = new HashMap<>();
+
+    // The number of unsold rounds of every item
+    private final Map<String, Integer> roundsByItem = new HashMap<>();
+
+    // The prefix of the conversation id of every lot
+    public static final String CONVERSATION_PREFIX = "blind-bid-";
+
+    private int lotSeq = 0;
+
+    // Counters for the throughput report
+    private long startedAt = 0;
+    private int lotsClosed = 0;
+    private int lotsSold = 0;
+    private int bidsReceived = 0;
+    private int lateReplies = 0;
+    private int expiredLots = 0;
+
+    // Message counters of the auctioneer (a multicast is one message with several deliveries)
+    private long messagesSent = 0;
+    private long deliveries = 0;
+    private long messagesReceived = 0;
+
+    // Time from CFP to award of every closed lot
+    private final LatencyHistogram closeLatency = new LatencyHistogram("us");
+
+    public AuctionEngine(AuctionConfig config) {
+        this.config = config;
+    }
+
+    public boolean hasFreeSlot() {
+        return openLots.size() < config.maxConcurrentLots;
+    }
+
+    public int getOpenCount() {
+        return openLots.size();
+    }
+
+    /**
+     * Open a new lot for the given item
+     */
+    public Lot open(String itemName, int initialPrice, int reservePrice, AID[] bidders) {
+        if (startedAt == 0) {
+            startedAt = config.clock.millis();
+        }
+        Lot lot = new Lot(CONVERSATION_PREFIX + (++lotSeq), itemName, initialPrice, reservePrice, bidders);
+        openLots.put(lot.getConversationId(), lot);
+        return lot;
+    }
+
+    public Collection<Lot> getOpenLots() {
+        return Collections.unmodifiableCollection(openLots.values());
+    }
+
+    public static boolean isLotConversation(String conversationId) {
+        return conversationId != null && conversationId.startsWith(CONVERSATION_PREFIX);
+    }
+
+    public Lot get(String conversationId) {
+        return conversationId == null ? null : openLots.get(conversationId);
+    }
+
+    public void bidReceived() {
+        bidsReceived++;
+    }
+
+    // A message was sent to the given number of receivers
+    public void messageSent(int receivers) {
+        messagesSent++;
+        deliveries += receivers;
+    }
+
+    // A message was received
+    public void messageReceived() {
+        messagesReceived++;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    /**
+     * Close a lot. Returns true if an unsold item has used up all its rounds.
+     */
+    public boolean close(Lot lot, boolean sold) {
+        closeBundle(lot, sold);
+        if (sold) {
+            itemSold(lot.getItemName());
+            return false;
+        }
+        return itemUnsold(lot.getItemName());
+    }
+
+    /**
+     * A reply arrived after its lot was closed
+     */
+    public void lateReplyReceived() {
+        lateReplies++;
+    }
+
+    public void lotExpired() {
+        expiredLots++;
+    }
+
+    public int getLateReplies() {
+        return lateReplies;
+    }
+
+    /**
+     * Close a lot without counting the rounds of its item (the items of a bundle
+     * are counted one by one with itemSold/itemUnsold)
+     */
+    public void closeBundle(Lot lot, boolean sold) {
+        closeLatency.record((config.clock.nanos() - lot.getOpenedAt()) / 1000);
+        openLots.remove(lot.getConversationId());
+        lotsClosed++;
+        if (sold) {
+            lotsSold++;
+        }
+    }
+
+    public void itemSold(String itemName) {
+        roundsByItem.remove(itemName);
+    }
+
+    /**
+     * An item went unsold. Returns true if it has used up all its rounds.
+     */
+    public boolean itemUnsold(String itemName) {
+        int rounds = roundsByItem.merge(itemName, 1, Integer::sum);
+        if (rounds >= config.maxRounds) {
+            roundsByItem.remove(itemName);
+            return true;
+        }
+        return false;
+    }
+
+    public AuctionClock getClock() {
+        return config.clock;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public int getLotsClosed() {
+        return lotsClosed;
+    }
+
+    public int getLotsSold() {
+        return lotsSold;
+    }
+
+    public int getBidsReceived() {
+        return bidsReceived;
+    }
+
+    public double getBidsPerSecond() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        long elapsed = Math.max(1, config.clock.millis() - startedAt);
+        return bidsReceived * 1000.0 / elapsed;
+    }
+
+    public double getLotsPerSecond() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        long elapsed = Math.max(1, config.clock.millis() - startedAt);
+        return lotsClosed * 1000.0 / elapsed;
+    }
+
+    public LatencyHistogram getCloseLatency() {
+        return closeLatency;
+    }
+
+    public String messageReport() {
+        double perLot = lotsClosed == 0 ? 0 : (double) (deliveries + messagesReceived) / lotsClosed;
+        return String.format("%d messages sent (%d deliveries), %d received, %.1f messages/lot",
+                messagesSent, deliveries, messagesReceived, perLot);
+    }
+
+    public String report() {
+        return String.format("%d lots closed (%d sold, %d open, %d expired), %d bids (%d late), %.2f lots/s, %.1f bids/s, CFP to award: %s",
+                lotsClosed, lotsSold, openLots.size(), expiredLots, bidsReceived, lateReplies,
+                getLotsPerSecond(), getBidsPerSecond(), closeLatency);
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * The formats a lot can be auctioned in. Clock auctions run in rounds: every round the
+ * auctioneer multicasts the asking price in a CFP, marked with the protocol of the format,
+ * and the bidders accept it (PROPOSE) or not (REFUSE).
+ */
+public enum AuctionFormat {
+
+    // One round of sealed bids, the highest one wins
+    SEALED(null),
+
+    // The price goes up every round and only the bidders that accepted the previous price are polled,
+    // until one of them is left
+    ENGLISH("fipa-english-auction"),
+
+    // The price goes down every round until a bidder accepts it or it falls below the reserve price
+    DUTCH("fipa-dutch-auction");
+
+    // The ACL protocol of the CFPs (null for sealed bids)
+    private final String protocol;
+
+    AuctionFormat(String protocol) {
+        this.protocol = protocol;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public boolean isClock() {
+        return protocol != null;
+    }
+
+    /**
+     * The format of a CFP, from its protocol
+     */
+    public static AuctionFormat forProtocol(String protocol) {
+        for (AuctionFormat format : values()) {
+            if (format.protocol != null && format.protocol.equals(protocol)) {
+                return format;
+            }
+        }
+        return SEALED;
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the auction: catalogue inserts and removals, CFPs, bids, awards (with
+ * the winner and the price it pays) and closes without sale. Records are written into a memory-mapped region of
+ * the file and forced to disk in groups (group commit): after every groupSize records, or when
+ * sync() is called by the periodic JournalSync behaviour of the auctioneer.
+ *
+ * A record is [int length][byte type][payload][int crc32 of type and payload]. A zero length
+ * marks the end of the journal; a record with a bad checksum (torn write) ends the replay.
+ * Strings are [short length][UTF-8 bytes], so names are at most 0xffff bytes long.
+ */
+public class AuctionJournal {
+
+    static final byte INSERT = 1;
+    static final byte REMOVE = 2;
+    static final byte CFP = 3;
+    static final byte BID = 4;
+    static final byte AWARD = 5;
+    static final byte CLOSE = 6;
+
+    // No longer written (the award has the bidder and the price), skipped in older journals
+    static final byte BUDGET_DEBIT = 7;
+
+    // Size of the region mapped at once
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int groupSize;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    // Number of records written since the last force
+    private int pending = 0;
+
+    private long records = 0;
+    private long syncs = 0;
+
+    private final CRC32 crc = new CRC32();
+
+    // Scratch buffer the record is built in before it is copied to the mapped region
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+
+    /**
+     * Open the journal for appending at the given position (the end found by replay())
+     */
+    public AuctionJournal(Path path, long position, int groupSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.groupSize = groupSize;
+        map(position);
+    }
+
+    private void map(long position) throws IOException {
+        if (region != null) {
+            region.force();
+        }
+        regionStart = position;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, REGION_SIZE);
+    }
+
+    public long getPosition() {
+        return regionStart + region.position();
+    }
+
+    public void insert(String name, int initialPrice, int reservePrice, int priority, long startTime) {
+        insert(name, initialPrice, reservePrice, priority, startTime, 1);
+    }
+
+    /**
+     * Insert an item with several units, or update the units left of an item
+     */
+    public void insert(String name, int initialPrice, int reservePrice, int priority, long startTime, int units) {
+        begin(INSERT);
+        putString(name);
+        record.putInt(initialPrice).putInt(reservePrice).putInt(priority).putLong(startTime).putInt(units);
+        end();
+    }
+
+    public void remove(String name) {
+        begin(REMOVE);
+        putString(name);
+        end();
+    }
+
+    public void cfp(String conversationId, String itemName) {
+        begin(CFP);
+        putString(conversationId);
+        putString(itemName);
+        end();
+    }
+
+    public void bid(String conversationId, String bidder, int price) {
+        begin(BID);
+        putString(conversationId);
+        putString(bidder);
+        record.putInt(price);
+        end();
+    }
+
+    public void award(String conversationId, String itemName, String bidder, int price) {
+        begin(AWARD);
+        putString(conversationId);
+        putString(itemName);
+        putString(bidder);
+        record.putInt(price);
+        end();
+    }
+
+    public void close(String conversationId) {
+        begin(CLOSE);
+        putString(conversationId);
+        end();
+    }
+
+    private void begin(byte type) {
+        record.clear();
+        record.putInt(0).put(type);
+    }
+
+    private void putString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("String too long for the journal: " + s.substring(0, 64) + "...");
+        }
+        if (record.remaining() < bytes.length + 64) {
+            ByteBuffer bigger = ByteBuffer.allocate(record.capacity() * 2 + bytes.length);
+            record.flip();
+            bigger.put(record);
+            record = bigger;
+        }
+        record.putShort((short) bytes.length).put(bytes);
+    }
+
+    private void end() {
+        int length = record.position() - 4;
+        record.putInt(0, length);
+        crc.reset();
+        crc.update(record.array(), 4, length);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        try {
+            // Keep room for the zero length that marks the end
+            if (region.remaining() < record.remaining() + 4) {
+                map(getPosition());
+            }
+            region.put(record);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot extend the journal", e);
+        }
+        records++;
+        if (++pending >= groupSize) {
+            sync();
+        }
+    }
+
+    /**
+     * Force the pending records to disk
+     */
+    public void sync() {
+        if (pending > 0) {
+            region.force();
+            pending = 0;
+            syncs++;
+        }
+    }
+
+    /**
+     * Sync and cut the file at the end of the last record
+     */
+    public void close() throws IOException {
+        sync();
+        long end = getPosition();
+        region = null;
+        channel.truncate(end);
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d records, %d syncs (%.1f records/sync)", records, syncs, syncs == 0 ? 0.0 : (double) records / syncs);
+    }
+
+    /**
+     * What a replay found in the journal
+     */
+    public static class Recovery {
+
+        // The items still in the catalogue, in journal order (name -> initial price, reserve price, priority, start time, units)
+        public final Map<String, long[]> items = new LinkedHashMap<>();
+
+        // The lots whose CFP was sent but that were neither awarded nor closed (conversation id -> item name)
+        public final Map<String, String> openLots = new LinkedHashMap<>();
+
+        public int bids = 0;
+        public int awards = 0;
+
+        // Where the journal ends, i.e. where the next record goes
+        public long endPosition = 0;
+    }
+
+    /**
+     * Read the journal and rebuild the state it describes. A missing file is an empty journal.
+     */
+    public static Recovery replay(Path path) throws IOException {
+        Recovery recovery = new Recovery();
+        if (!Files.exists(path)) {
+            return recovery;
+        }
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long position = 0;
+            ByteBuffer buffer = null;
+            long bufferStart = 0;
+            CRC32 crc = new CRC32();
+            while (position + 4 <= size) {
+                // Map the next chunk if the record may not be in the current one
+                if (buffer == null || position + 4 > bufferStart + buffer.limit()) {
+                    bufferStart = position;
+                    buffer = ch.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, REGION_SIZE));
+                }
+                int length = buffer.getInt((int) (position - bufferStart));
+                if (length <= 0 || position + 4 + length + 4 > size) {
+                    break;
+                }
+                if (position + 4 + length + 4 > bufferStart + buffer.limit()) {
+                    bufferStart = position;
+                    buffer = ch.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, Math.max(REGION_SIZE, length + 8)));
+                }
+                int offset = (int) (position - bufferStart) + 4;
+                ByteBuffer rec = buffer.duplicate();
+                rec.limit(offset + length).position(offset);
+                crc.reset();
+                crc.update(rec.duplicate());
+                if (buffer.getInt(offset + length) != (int) crc.getValue()) {
+                    AuctionLog.info("Journal ends with a torn record at " + position);
+                    break;
+                }
+                apply(recovery, rec);
+                position += 4 + length + 4;
+            }
+            recovery.endPosition = position;
+        }
+        return recovery;
+    }
+
+    private static void apply(Recovery recovery, ByteBuffer rec) {
+        byte type = rec.get();
+        switch (type) {
+            case INSERT: {
+                String name = getString(rec);
+                long[] item = {rec.getInt(), rec.getInt(), rec.getInt(), rec.getLong(), 1};
+                // Journals written before units were recorded have one unit per item
+                if (rec.remaining() >= 4) {
+                    item[4] = rec.getInt();
+                }
+                recovery.items.put(name, item);
+                break;
+            }
+            case REMOVE:
+                recovery.items.remove(getString(rec));
+                break;
+            case CFP: {
+                String conversationId = getString(rec);
+                recovery.openLots.put(conversationId, getString(rec));
+                break;
+            }
+            case BID:
+                recovery.bids++;
+                break;
+            case AWARD: {
+                recovery.openLots.remove(getString(rec));
+                recovery.items.remove(getString(rec));
+                recovery.awards++;
+                break;
+            }
+            case CLOSE:
+                recovery.openLots.remove(getString(rec));
+                break;
+            case BUDGET_DEBIT:
+                break;
+            default:
+                AuctionLog.error("Unknown journal record " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer rec) {
+        int length = rec.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        rec.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -16,8 +16,8 @@ public class AuctionLauncher {
         AgentContainer mainContainer = rt.createMainContainer(p1);
 
         try {
-            // Start the auctioneer agent
-            AgentController auctioneerController = mainContainer.createNewAgent("auctioneer", "Auctioneer", null);
+            // Start the auctioneer agent, the command line arguments are its settings (e.g. lots=8)
+            AgentController auctioneerController = mainContainer.createNewAgent("auctioneer", "Auctioneer", args);
             auctioneerController.start();
 
             // Start some bidder agents (you can adjust the number as needed)
@@ -0,0 +1,132 @@
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous, level-gated logging of the agents. Messages are queued and printed by a daemon
+ * thread, so agents never wait for the console; when the queue is full they are dropped and counted.
+ * On hot paths the level is checked first (if (AuctionLog.isDebug()) ...), so disabled messages
+ * are not even built. The level is set with -Dauction.log or the "log" setting of the auctioneer:
+ * off, error, info (the default) or debug.
+ */
+public final class AuctionLog {
+
+    public enum Level { OFF, ERROR, INFO, DEBUG }
+
+    private static volatile Level level = Level.valueOf(System.getProperty("auction.log", "info").toUpperCase());
+
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(65536);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    // Messages queued and printed so far, so flush() knows when the output is complete
+    private static final AtomicLong queued = new AtomicLong();
+    private static volatile long printed = 0;
+
+    static {
+        Thread writer = new Thread(AuctionLog::write, "auction-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private AuctionLog() {
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isDebug() {
+        return level == Level.DEBUG;
+    }
+
+    public static boolean isInfo() {
+        return level.compareTo(Level.INFO) >= 0;
+    }
+
+    public static void debug(String message) {
+        if (isDebug()) {
+            enqueue(message);
+        }
+    }
+
+    public static void info(String message) {
+        if (isInfo()) {
+            enqueue(message);
+        }
+    }
+
+    public static void error(String message) {
+        if (level != Level.OFF) {
+            enqueue(message);
+        }
+    }
+
+    public static void error(String message, Throwable t) {
+        if (level != Level.OFF) {
+            StringWriter trace = new StringWriter();
+            t.printStackTrace(new PrintWriter(trace));
+            enqueue(message + System.lineSeparator() + trace);
+        }
+    }
+
+    /**
+     * The number of messages dropped because the queue was full
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Wait (at most the given time, in ms) until the queued messages are printed,
+     * e.g. before the platform is shut down
+     */
+    public static void flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        long target = queued.get();
+        while (printed < target && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void enqueue(String message) {
+        if (queue.offer(message)) {
+            queued.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    // Print the messages in batches, flushing the console once per batch
+    private static void write() {
+        PrintStream out = System.out;
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, 1023);
+            for (String message : batch) {
+                out.println(message);
+            }
+            out.flush();
+            printed += batch.size();
+            batch.clear();
+        }
+    }
+}
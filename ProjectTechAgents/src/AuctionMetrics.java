@@ -0,0 +1,202 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Instrumentation of an auctioneer: histograms of the lot lifecycle, DF updates and mailbox
+ * depth, next to the counters of its AuctionEngine. Everything is recorded from the agent thread;
+ * JMX and the dump file read it from other threads, so their readings may lag a little.
+ */
+public class AuctionMetrics implements AuctionMetricsMBean {
+
+    private final AuctionEngine engine;
+
+    // Time from the CFP of a lot to its first bid (the close latency is kept by the engine)
+    private final LatencyHistogram cfpToFirstBid = new LatencyHistogram("us");
+
+    // The number of bids of every closed lot
+    private final LatencyHistogram bidsPerLot = new LatencyHistogram("bids");
+
+    // Time to decode and apply a DF notification, and from the subscription to the first one
+    private final LatencyHistogram dfUpdate = new LatencyHistogram("us");
+    private long dfFirstNotification = -1;
+
+    // The number of messages waiting in the mailbox when a reply is taken out of it
+    private final LatencyHistogram mailboxDepth = new LatencyHistogram("msgs");
+    private volatile int lastMailboxDepth = 0;
+
+    // Bidders that did not reply to a CFP before its deadline
+    private long replyTimeouts = 0;
+
+    private ObjectName name;
+
+    public AuctionMetrics(AuctionEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * The first bid of a lot is received
+     */
+    public void firstBid(Lot lot) {
+        cfpToFirstBid.record((engine.getClock().nanos() - lot.getOpenedAt()) / 1000);
+    }
+
+    public void lotClosed(Lot lot) {
+        bidsPerLot.record(lot.getBids());
+    }
+
+    public void replyTimeouts(int missing) {
+        replyTimeouts += missing;
+    }
+
+    public void dfUpdate(long micros, long sinceSubscription) {
+        dfUpdate.record(micros);
+        if (dfFirstNotification < 0) {
+            dfFirstNotification = sinceSubscription;
+        }
+    }
+
+    public void mailboxDepth(int depth) {
+        mailboxDepth.record(depth);
+        lastMailboxDepth = depth;
+    }
+
+    /**
+     * Register with the platform MBean server of the JVM
+     */
+    public void register(String agentName) {
+        try {
+            name = new ObjectName("ProjectTechAgents:type=Auctioneer,name=" + ObjectName.quote(agentName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            AuctionLog.error("Cannot register the metrics of " + agentName, e);
+            name = null;
+        }
+    }
+
+    public void unregister() {
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            AuctionLog.error("Cannot unregister " + name, e);
+        }
+    }
+
+    /**
+     * Write the report to a file, replacing it in one step so readers never see half of it
+     */
+    public void dump(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, getReport().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int getOpenLots() {
+        return engine.getOpenCount();
+    }
+
+    public long getLotsClosed() {
+        return engine.getLotsClosed();
+    }
+
+    public long getLotsSold() {
+        return engine.getLotsSold();
+    }
+
+    public long getBidsReceived() {
+        return engine.getBidsReceived();
+    }
+
+    public long getLateReplies() {
+        return engine.getLateReplies();
+    }
+
+    public long getReplyTimeouts() {
+        return replyTimeouts;
+    }
+
+    public long getMessagesSent() {
+        return engine.getMessagesSent();
+    }
+
+    public long getMessagesReceived() {
+        return engine.getMessagesReceived();
+    }
+
+    public double getLotsPerSecond() {
+        return engine.getLotsPerSecond();
+    }
+
+    public double getBidsPerSecond() {
+        return engine.getBidsPerSecond();
+    }
+
+    public long getCfpToFirstBidP50Micros() {
+        return cfpToFirstBid.getPercentile(50);
+    }
+
+    public long getCfpToFirstBidP99Micros() {
+        return cfpToFirstBid.getPercentile(99);
+    }
+
+    public long getCfpToCloseP50Micros() {
+        return engine.getCloseLatency().getPercentile(50);
+    }
+
+    public long getCfpToCloseP99Micros() {
+        return engine.getCloseLatency().getPercentile(99);
+    }
+
+    public double getBidsPerLotMean() {
+        return bidsPerLot.getMean();
+    }
+
+    public long getDfUpdateP99Micros() {
+        return dfUpdate.getPercentile(99);
+    }
+
+    public int getMailboxDepth() {
+        return lastMailboxDepth;
+    }
+
+    public long getMaxMailboxDepth() {
+        return mailboxDepth.getMax();
+    }
+
+    public long getLogMessagesDropped() {
+        return AuctionLog.getDropped();
+    }
+
+    public String getLogLevel() {
+        return AuctionLog.getLevel().name().toLowerCase();
+    }
+
+    public void setLogLevel(String level) {
+        AuctionLog.setLevel(AuctionLog.Level.valueOf(level.toUpperCase()));
+    }
+
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(engine.report()).append('\n');
+        sb.append("Messages: ").append(engine.messageReport()).append('\n');
+        sb.append("Reply timeouts: ").append(replyTimeouts).append('\n');
+        sb.append("CFP to first bid: ").append(cfpToFirstBid).append('\n');
+        sb.append("CFP to close: ").append(engine.getCloseLatency()).append('\n');
+        sb.append("Bids per lot: ").append(bidsPerLot).append('\n');
+        sb.append("DF updates: ").append(dfUpdate).append(", first notification after ")
+                .append(dfFirstNotification).append(" us\n");
+        sb.append("Mailbox depth: ").append(mailboxDepth).append('\n');
+        sb.append("Log messages dropped: ").append(AuctionLog.getDropped()).append('\n');
+        return sb.toString();
+    }
+}
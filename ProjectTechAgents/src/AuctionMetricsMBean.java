@@ -0,0 +1,50 @@
+/**
+ * The JMX view of the metrics of an auctioneer (see AuctionMetrics).
+ * Registered as "ProjectTechAgents:type=Auctioneer,name=<agent>".
+ */
+public interface AuctionMetricsMBean {
+
+    int getOpenLots();
+
+    long getLotsClosed();
+
+    long getLotsSold();
+
+    long getBidsReceived();
+
+    long getLateReplies();
+
+    long getReplyTimeouts();
+
+    long getMessagesSent();
+
+    long getMessagesReceived();
+
+    double getLotsPerSecond();
+
+    double getBidsPerSecond();
+
+    long getCfpToFirstBidP50Micros();
+
+    long getCfpToFirstBidP99Micros();
+
+    long getCfpToCloseP50Micros();
+
+    long getCfpToCloseP99Micros();
+
+    double getBidsPerLotMean();
+
+    long getDfUpdateP99Micros();
+
+    int getMailboxDepth();
+
+    long getMaxMailboxDepth();
+
+    long getLogMessagesDropped();
+
+    String getLogLevel();
+
+    void setLogLevel(String level);
+
+    String getReport();
+}
@@ -0,0 +1,67 @@
+/**
+ * The outcome of a lot for one item (or one unit, or the items of one winning bundle bid),
+ * as published by AuctionResults
+ */
+public class AuctionResult {
+
+    public enum Kind {
+        // Sold to the bidder at the price
+        AWARD,
+        // No bid at or above the initial price
+        NO_SALE,
+        // The best bid (the price) is above the initial price but below the reserve price
+        RESERVE_NOT_MET
+    }
+
+    private final Kind kind;
+    private final long time;
+    private final String conversationId;
+    private final String itemName;
+    private final String bidder;
+    private final int price;
+
+    public AuctionResult(Kind kind, long time, String conversationId, String itemName, String bidder, int price) {
+        this.kind = kind;
+        this.time = time;
+        this.conversationId = conversationId;
+        this.itemName = itemName;
+        this.bidder = bidder;
+        this.price = price;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // When the lot closed (ms since epoch, or virtual time)
+    public long getTime() {
+        return time;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    // The name of the winner (null unless an award)
+    public String getBidder() {
+        return bidder;
+    }
+
+    // The price paid, or the best bid (0 if none)
+    public int getPrice() {
+        return price;
+    }
+
+    /**
+     * One tab-separated line: time, kind, conversation id, item, bidder (- if none), price
+     */
+    @Override
+    public String toString() {
+        return time + "\t" + kind + "\t" + conversationId + "\t" + itemName.replace('\t', ' ') + "\t"
+                + (bidder == null ? "-" : bidder) + "\t" + price;
+    }
+}
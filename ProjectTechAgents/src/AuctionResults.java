@@ -0,0 +1,69 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The stream of the results of the lots of an auctioneer, for settlement and other consumers.
+ * Each subscriber gets a bounded buffer and is served on the results threads, at the pace of
+ * its own requests. Publishing never blocks the agent: a result that does not fit in the buffer
+ * of a subscriber that has fallen behind is dropped for that subscriber and counted.
+ */
+public class AuctionResults {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "auction-results");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final SubmissionPublisher<AuctionResult> publisher;
+
+    private long published = 0;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public AuctionResults(int bufferSize) {
+        publisher = new SubmissionPublisher<>(executor, bufferSize);
+    }
+
+    public Flow.Publisher<AuctionResult> getPublisher() {
+        return publisher;
+    }
+
+    public void subscribe(Flow.Subscriber<AuctionResult> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Publish a result, from the agent thread
+     */
+    public void publish(AuctionResult result) {
+        published++;
+        publisher.offer(result, (subscriber, r) -> {
+            dropped.incrementAndGet();
+            return false;
+        });
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Complete the stream. The subscribers get the results still buffered, then onComplete.
+     */
+    public void close() {
+        publisher.close();
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return published + " results published, " + dropped.get() + " dropped by slow subscribers";
+    }
+}
@@ -2,13 +2,24 @@ import jade.core.Agent;
 import jade.core.AID;
 import jade.core.behaviours.*;
 import jade.lang.acl.ACLMessage;
-import jade.lang.acl.MessageTemplate;
 import jade.domain.DFService;
 import jade.domain.FIPAException;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
-
+import jade.proto.SubscriptionInitiator;
+import jade.wrapper.ControllerException;
+
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.random.RandomGenerator;
 
 /**
  * JADE agent representing an auctioneer of an auction.
@@ -16,16 +27,8 @@ import java.util.*;
  */
 public class Auctioneer extends Agent {
 
-    // The catalogue of items for sale (maps the title of a item to its price)
-    private Hashtable<String, ItemInfo> catalogue;
-
-    // Highest bid received
-    private int highestBid = 0;
-
-    // The number of rounds the auction should go through before terminating
-    private int maxRounds = 3; // Change this to set the desired number of rounds
-    private int currentRound = 0;
-
+    // The catalogue of items for sale, in auction order
+    private LotCatalogue catalogue;
 
     // Flag to indicate if bidding is active
     private boolean biddingActive = false;
@@ -36,31 +39,56 @@ public class Auctioneer extends Agent {
     // Show whether auction has started
     private boolean auctionStarted = false;
 
-    // The template to receive replies
-    public MessageTemplate mt;
+    // The settings of this auctioneer
+    private AuctionConfig config;
+
+    // The lots currently on auction
+    private AuctionEngine engine;
+
+    // The codec of the CFPs and awards
+    private BidCodec codec;
+
+    // The journal of lots, bids and awards (null if not journaling)
+    private AuctionJournal journal;
 
-    // The list of known bidders
-    public AID[] bidders;
+    // Histograms of the lot lifecycle, exposed through JMX
+    private AuctionMetrics metrics;
 
-    // The bidder who provides the best offer
-    public AID bestBidder;
+    // The known bidders, kept up to date by the DF
+    private BidderRegistry registry;
 
-    // The most updated best offered price
-    public int bestPrice;
+    // The subscription to the DF for bidder (de)registrations
+    private BidderSubscription subscription;
 
-    public boolean biddersFound = false;
-    public boolean CFPSent = false;
-    public boolean bidsReceived = false;
+    // Receives every message and routes it to its lot
+    private MessageDispatcher dispatcher;
 
-    public FindBidder p = null;
-    public SendCFP q = null;
-    public ReceiveBids r = null;
-    public AnnounceWinnerAndUpdateCatalogue s = null;
+    // Runs the CFPs, deadlines and awards of the lots
+    private LotScheduler scheduler;
 
-    // Define a new message type for informing bidders about the highest bid
-    public static final int HIGHEST_BID = 3;
+    // The stream of the outcomes of the lots, and its file (null if none)
+    private AuctionResults results;
+    private RollingResultsFile resultsFile;
 
-    public Hashtable<String, ItemInfo> getCatalogue() {
+    // Told when lots open and close (the GUI)
+    private final List<LotListener> listeners = new CopyOnWriteArrayList<>();
+
+    // The items and imports handed over by other threads wait in the O2A queue, up to this many
+    private static final int O2A_CAPACITY = 1024;
+
+    // Held while checking the size of the O2A queue and putting an object in it (see offerO2A)
+    private final Object o2aLock = new Object();
+
+    // The bundles whose winners the solver has determined, waiting to be announced by the agent,
+    // and the O2A object that wakes the agent up for them
+    private final Queue<ClearBundle> cleared = new ConcurrentLinkedQueue<>();
+    private static final Object BUNDLE_CLEARED = new Object();
+
+    // The user-defined parameter of a clock CFP holding the initial price of the item,
+    // the asking price of the round being in the content
+    public static final String INITIAL_PRICE = "initial-price";
+
+    public LotCatalogue getCatalogue() {
         return catalogue;
     }
 
@@ -86,57 +114,354 @@ public class Auctioneer extends Agent {
     protected void setup() {
 
         // Printout a welcome message
-        System.out.println("Hello! Auctioneer " + getAID().getName() + " is ready");
+        AuctionLog.info("Hello! Auctioneer " + getAID().getName() + " is ready");
+
+        config = AuctionConfig.fromArguments(getArguments());
+        engine = new AuctionEngine(config);
+        metrics = new AuctionMetrics(engine);
+        metrics.register(getLocalName());
+        codec = config.getCodec();
+        registry = new BidderRegistry();
+        results = new AuctionResults(config.resultsBuffer);
+        if (config.resultsFile != null) {
+            resultsFile = new RollingResultsFile(config.resultsFile, config.resultsRoll);
+            results.subscribe(resultsFile);
+        }
+
+        // The GUI and other threads add items through a bounded queue, drained by the loader
+        setEnabledO2ACommunication(true, O2A_CAPACITY);
+        CatalogueLoader loader = new CatalogueLoader(this);
+        setO2AManager(loader);
+        addBehaviour(loader);
 
         // Create the catalogue
-        catalogue = new Hashtable<>();
-        updateCatalogue("Antique Vase", 1200, 1250);
+        catalogue = new LotCatalogue(config.order, config.bandWidth);
+        // A journal with records is the state of the market, even if every item is sold
+        boolean replayed = config.journal != null && openJournal();
+        if (config.journal != null && journal == null) {
+            // Running without the journal that was asked for would silently lose the durability
+            AuctionLog.error("Auctioneer " + getLocalName() + " not started: cannot open the journal " + config.journal);
+            doDelete();
+            return;
+        }
+        if (replayed) {
+            AuctionLog.info(catalogue.size() + " items restored from the journal");
+        } else if (config.snapshot != null && Files.exists(Paths.get(config.snapshot))) {
+            loadSnapshot();
+        } else if (config.items > 0) {
+            generateCatalogue();
+        } else {
+            updateCatalogue("Antique Vase", 1200, 1250);
+        }
 
-        // Create and show the GUI
-        myGui = new AuctioneerGUI(this);
-        myGui.showGui();
+        // Create and show the GUI (shards get their items from the coordinator)
+        if (config.gui && config.coordinator == null && !GraphicsEnvironment.isHeadless()) {
+            myGui = new AuctioneerGUI(this);
+            addLotListener(myGui);
+            myGui.showGui();
+        }
 
         // Add a TickerBehaviour that schedules a request to bidders every minute
         addBehaviour(new ActionPerMinute(this));
 
-        // Add behavior to receive highest bid from bidders
-        addBehaviour(new ReceiveHighestBid(this));
+        // Subscribe to the DF to be notified when bidders come and go
+        subscription = new BidderSubscription(this);
+        addBehaviour(subscription);
+
+        // A single behaviour receives the messages: the replies of every open lot go to its own
+        // ReceiveBids (registered by SendCFP), those of the closed lots are counted
+        dispatcher = new MessageDispatcher(this);
+        ReceiveClosedLotReplies closedLots = new ReceiveClosedLotReplies(this);
+        dispatcher.on(ACLMessage.PROPOSE, closedLots);
+        dispatcher.on(ACLMessage.REFUSE, closedLots);
+        dispatcher.on(ACLMessage.FAILURE, closedLots);
+        dispatcher.on(ACLMessage.INFORM, closedLots);
+
+        // The items routed by the coordinator
+        if (config.coordinator != null) {
+            dispatcher.on(ACLMessage.REQUEST, new ReceiveCatalogueUpdates(this));
+        }
+        addBehaviour(dispatcher);
+
+        scheduler = new LotScheduler(this, config.clock, config.quantum);
+        addBehaviour(scheduler);
+
+        // Group commit of the journal
+        if (journal != null) {
+            addBehaviour(new JournalSync(this));
+        }
+
+        if (config.snapshot != null) {
+            addBehaviour(new SnapshotSave(this));
+        }
+
+        if (config.metricsFile != null) {
+            addBehaviour(new MetricsDump(this));
+        }
+    }
+
+    /**
+     * Replay the journal into the catalogue, then open it for appending.
+     * Items whose lot was interrupted by the restart are put on auction first.
+     * Returns true if the journal had any records.
+     */
+    private boolean openJournal() {
+        try {
+            AuctionJournal.Recovery recovery = AuctionJournal.replay(Paths.get(config.journal));
+            for (String itemName : recovery.openLots.values()) {
+                restoreItem(itemName, recovery.items.remove(itemName));
+            }
+            for (Map.Entry<String, long[]> item : recovery.items.entrySet()) {
+                restoreItem(item.getKey(), item.getValue());
+            }
+            AuctionLog.info("Journal replayed: " + recovery.awards + " awards, " + recovery.bids + " bids, "
+                    + recovery.openLots.size() + " interrupted lots");
+            journal = new AuctionJournal(Paths.get(config.journal), recovery.endPosition, config.groupCommit);
+            return recovery.endPosition > 0;
+        } catch (IOException e) {
+            AuctionLog.error("Cannot open the journal " + config.journal, e);
+            return false;
+        }
+    }
+
+    /**
+     * Warm start: load the catalogue and the bidders of the last snapshot. The items of the lots
+     * that were open are put back in the queue. With a journal, the restored items are journaled
+     * so the next replay finds them.
+     */
+    private void loadSnapshot() {
+        try {
+            long start = System.currentTimeMillis();
+            MarketSnapshot.Restored restored = MarketSnapshot.load(Paths.get(config.snapshot), catalogue, registry);
+            AuctionLog.info(restored.items + " items, " + restored.openLots.size() + " interrupted lots and "
+                    + restored.bidders + " bidders restored from " + config.snapshot + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            if (journal != null) {
+                catalogue.forEach(slot -> journal.insert(catalogue.getName(slot), catalogue.getInitialPrice(slot),
+                        catalogue.getReservePrice(slot), catalogue.getPriority(slot), catalogue.getStartTime(slot), catalogue.getUnits(slot)));
+            }
+        } catch (IOException e) {
+            AuctionLog.error("Cannot load the snapshot " + config.snapshot, e);
+        }
+    }
+
+    private void saveSnapshot() {
+        try {
+            long start = System.currentTimeMillis();
+            MarketSnapshot.save(Paths.get(config.snapshot), catalogue, engine.getOpenLots(), registry);
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug("Snapshot of " + catalogue.size() + " items saved to " + config.snapshot + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+        } catch (IOException e) {
+            AuctionLog.error("Cannot save the snapshot " + config.snapshot, e);
+        }
+    }
+
+    private void restoreItem(String itemName, long[] item) {
+        if (item != null) {
+            catalogue.add(itemName, (int) item[0], (int) item[1], (int) item[2], item[3], (int) item[4]);
+        }
     }
 
     // Put agent clean-up operations here
     protected void takeDown() {
+        if (subscription == null) {
+            // setup() refused to start: nothing was auctioned, and the snapshot must stay as it is
+            metrics.unregister();
+            AuctionLog.flush(1000);
+            return;
+        }
+        subscription.cancel(getDefaultDF(), true);
+
         // Close the GUI
-        myGui.dispose();
+        if (myGui != null) {
+            myGui.dispose();
+        }
 
         // Printout a dismissal message
-        System.out.println("Auctioneer " + getAID().getName() + " terminating");
+        AuctionLog.info("Auctioneer " + getAID().getName() + " terminating. " + engine.report());
+        AuctionLog.info(engine.getCloseLatency().toHistogram().stripTrailing());
+        AuctionLog.info("Bidder registry: " + registry);
+        AuctionLog.info("Messages: " + engine.messageReport());
+        AuctionLog.info("Lot scheduler: " + scheduler);
+
+        metrics.unregister();
+        dumpMetrics();
+
+        // Let the results file catch up with the last results
+        results.close();
+        if (resultsFile != null) {
+            try {
+                resultsFile.awaitClose(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        AuctionLog.info("Results: " + results);
+
+        if (config.snapshot != null) {
+            saveSnapshot();
+        }
+
+        if (journal != null) {
+            try {
+                journal.close();
+                AuctionLog.info("Journal: " + journal);
+            } catch (IOException e) {
+                AuctionLog.error("Cannot close the journal " + config.journal, e);
+            }
+        }
+        AuctionLog.flush(1000);
+    }
+
+    private void dumpMetrics() {
+        if (config.metricsFile != null) {
+            try {
+                metrics.dump(Paths.get(config.metricsFile));
+            } catch (IOException e) {
+                AuctionLog.error("Cannot dump the metrics to " + config.metricsFile, e);
+            }
+        }
     }
 
     /**
      * This is invoked by the GUI when the user adds a new item for sale
      */
-    public void updateCatalogue(final String title, final int price, final int rprice) {
+    public boolean updateCatalogue(final String title, final int price, final int rprice) {
+        return updateCatalogue(title, price, rprice, 0, 0);
+    }
+
+    /**
+     * Add an item with a priority (higher first, for the "priority" order)
+     * and a start time (ms since epoch, for the "scheduled" order)
+     */
+    public boolean updateCatalogue(final String title, final int price, final int rprice, final int priority, final long startTime) {
+        return submit(new CatalogueItem(title, price, rprice, priority, startTime, 1));
+    }
+
+    /**
+     * Hand an item over to the agent, from any thread. Never blocks: false if the queue is full
+     * and the item was not taken, so the caller can retry later.
+     */
+    public boolean submit(CatalogueItem item) {
+        return offerO2A(item);
+    }
+
+    /**
+     * Import the items of a CSV or JSON file (see CatalogueImport), from any thread.
+     * The file is read by the agent, importBatch items at a time, so bids are still received during the import.
+     */
+    public boolean importCatalogue(Path path) {
+        return offerO2A(new CatalogueImport(path));
+    }
+
+    // The O2A queue drops its oldest object when full, so refuse the new one instead. The GUI, import
+    // and solver threads may call it together: the lock keeps two of them from filling the last place.
+    // The agent only takes objects out, which cannot make the check wrong.
+    private boolean offerO2A(Object o) {
+        synchronized (o2aLock) {
+            if (getO2AQueueSize() >= O2A_CAPACITY) {
+                return false;
+            }
+            try {
+                putO2AObject(o, false);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The awards and unsold lots, for settlement. Subscribers are served on their own threads,
+     * and miss the results that do not fit in their buffer if they fall behind.
+     */
+    public Flow.Publisher<AuctionResult> getResults() {
+        return results.getPublisher();
+    }
+
+    // Publish the outcome of a lot for an item
+    private void publish(AuctionResult.Kind kind, Lot lot, String itemName, AID bidder, int price) {
+        results.publish(new AuctionResult(kind, config.clock.millis(), lot.getConversationId(), itemName,
+                bidder == null ? null : bidder.getName(), price));
+    }
+
+    // An item is not sold: nobody bid enough, or the best bid is below the reserve price
+    private void publishUnsold(Lot lot, String itemName, int bestBid) {
+        publish(bestBid > 0 && bestBid >= lot.getInitialPrice() ? AuctionResult.Kind.RESERVE_NOT_MET : AuctionResult.Kind.NO_SALE,
+                lot, itemName, null, bestBid);
+    }
+
+    public void addLotListener(LotListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeLotListener(LotListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Insert an item, from the agent thread
+    private void addToCatalogue(String title, int price, int rprice, int priority, long startTime, int units) {
+        catalogue.add(title, price, rprice, priority, startTime, units); // Store both initial price and reserve price
+        if (journal != null) {
+            journal.insert(title, price, rprice, priority, startTime, units);
+        }
+        if (AuctionLog.isDebug()) {
+            AuctionLog.debug(title + " is inserted into catalogue. Initial Price = " + price + ", Reserve Price = " + rprice);
+        }
+    }
+
+    // Items were added: tell the listeners, and start lots right away if bidders are already known
+    private void catalogueChanged() {
+        fireCatalogueChanged();
+        if (config.eventDriven && !registry.isEmpty()) {
+            startLots();
+        }
+    }
+
+    private void fireCatalogueChanged() {
+        for (LotListener listener : listeners) {
+            listener.catalogueChanged(catalogue.size(), engine.getOpenCount(), engine.getLotsClosed());
+        }
+    }
 
-        addBehaviour(new OneShotBehaviour() {
-            public void action() {
-                catalogue.put(title, new ItemInfo(price, rprice)); // Store both initial price and reserve price
-                System.out.println(title + " is inserted into catalogue. Initial Price = " + price + ", Reserve Price = " + rprice);
+    private void fireLotClosed(Lot lot, String result) {
+        for (LotListener listener : listeners) {
+            listener.lotClosed(lot.getConversationId(), lot.getItemName(), result);
+        }
+    }
+
+    // Put the generated items of a load test in the catalogue
+    private void generateCatalogue() {
+        // The shards of a seeded run share one stream, so an item gets the same prices whatever the number of shards
+        RandomGenerator rn = config.seed != 0 ? new SplittableRandom(AuctionConfig.seedOf(config.seed, "catalogue")) : new Random();
+        for (int i = 1; i <= config.items; i++) {
+            String name = "Lot " + i;
+            int price = config.priceDistribution.sample(rn);
+            int reservePrice = price + config.reserveDistribution.sample(rn);
+            int units = Math.max(1, config.unitsDistribution.sample(rn));
+            // A shard only generates the items it owns
+            if (config.shards > 1 && AuctionCoordinator.shardOf(name, config.shards) != config.shard) {
+                continue;
+            }
+            catalogue.add(name, price, reservePrice, 0, 0, units);
+            if (journal != null) {
+                journal.insert(name, price, reservePrice, 0, 0, units);
             }
-        });
+        }
+        AuctionLog.info(config.items + " items generated with prices " + config.priceDistribution);
     }
 
     public Integer removeItemFromCatalogue(final String title) {
-        ItemInfo itemInfo = (ItemInfo) catalogue.get(title);
+        // Called from the agent thread only, so the item is removed right away
+        // and cannot be put on auction again by the next tick
+        int slot = catalogue.indexOf(title);
         Integer price = null;
-        if (itemInfo != null) {
-            price = itemInfo.getInitialPrice();
-            addBehaviour(
-                    new OneShotBehaviour() {
-                        public void action() {
-                            catalogue.remove(title);
-                        }
-                    }
-            );
+        if (slot >= 0) {
+            price = catalogue.getInitialPrice(slot);
+            catalogue.remove(title);
         }
         return price;
     }
@@ -145,13 +470,212 @@ public class Auctioneer extends Agent {
     }
 
     public String getFirstItemName() {
-        return catalogue.keySet().iterator().next();
+        return catalogue.peekNextName();
+    }
+
+    // Send a message and count it
+    private void post(ACLMessage msg, int receivers) {
+        engine.messageSent(receivers);
+        send(msg);
+    }
+
+    /**
+     * Stop accepting replies for a lot and announce its winner
+     */
+    public void closeLot(Lot lot) {
+        lot.markClosed();
+        dispatcher.unregister(lot.getConversationId());
+        scheduler.cancel(lot);
+        metrics.lotClosed(lot);
+        if (lot.getBundle() != null) {
+            scheduler.submit(lot, new ClearBundle(this, lot));
+        } else {
+            scheduler.submit(lot, new AnnounceWinnerAndUpdateCatalogue(this, lot));
+        }
+    }
+
+    // A lot is closed: go on with the next ones, or stop once everything is sold
+    private void lotResolved() {
+        if (AuctionLog.isDebug()) {
+            AuctionLog.debug(engine.report());
+        }
+        fireCatalogueChanged();
+
+        // Go on with the next lot right away
+        if (config.eventDriven) {
+            startLots();
+        }
+
+        if (config.exitWhenDone && isCatalogueEmpty() && engine.getOpenCount() == 0) {
+            if (config.coordinator != null) {
+                // The coordinator shuts down once every shard is done
+                sendShardReport(true);
+            } else {
+                shutDownPlatform();
+            }
+        }
+    }
+
+    /**
+     * Print the final report and kill the platform (used by the load test)
+     */
+    public void shutDownPlatform() {
+        AuctionLog.info("All lots are closed. " + engine.report());
+        AuctionLog.info("Messages: " + engine.messageReport());
+        AuctionLog.info(engine.getCloseLatency().toHistogram().stripTrailing());
+        // Killing the platform terminates this agent too, so it cannot be done from its own thread
+        new Thread(() -> {
+            AuctionLog.flush(1000);
+            try {
+                getContainerController().getPlatformController().kill();
+            } catch (ControllerException e) {
+                AuctionLog.error("Cannot shut the platform down", e);
+            }
+        }).start();
+    }
+
+    /**
+     * Send the progress of this shard to the coordinator
+     */
+    public void sendShardReport(boolean done) {
+        ACLMessage report = new ACLMessage(ACLMessage.INFORM);
+        report.addReceiver(new AID(config.coordinator, AID.ISLOCALNAME));
+        report.setProtocol(AuctionCoordinator.SHARD_REPORT);
+        try {
+            report.setContentObject(ShardReport.from(config.shard, engine, done));
+            post(report, 1);
+        } catch (IOException e) {
+            AuctionLog.error("Cannot send the report of shard " + config.shard, e);
+        }
+    }
+
+    public BidderRegistry getRegistry() {
+        return registry;
+    }
+
+    public AuctionEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Open a lot for the next items of the catalogue, as long as there are free slots
+     */
+    public void startLots() {
+        if (registry.size() < config.minBidders) {
+            return;
+        }
+        long now = config.clock.millis();
+        while (engine.hasFreeSlot()) {
+            if (config.bundleSize > 0) {
+                if (!startBundle(now)) {
+                    break;
+                }
+                continue;
+            }
+            int slot = catalogue.pollNext(now);
+            if (slot < 0) {
+                break;
+            }
+            String itemName = catalogue.getName(slot);
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug("Starting auction for item " + itemName);
+            }
+            // Only the bidders that can afford the item get its CFP (all of them unless they advertise their funds)
+            int initialPrice = catalogue.getInitialPrice(slot);
+            int reservePrice = catalogue.getReservePrice(slot);
+            AID[] bidders = registry.getBidders(Math.max(initialPrice, reservePrice));
+            Lot lot = engine.open(itemName, initialPrice, reservePrice, bidders);
+            lot.setSchedule(catalogue.getPriority(slot), weightOf(initialPrice));
+            if (config.format == AuctionFormat.ENGLISH) {
+                // Start at the reserve, so a single interested bidder can still buy the item
+                lot.startClock(config.format, lot.getMinimumPrice());
+            } else if (config.format == AuctionFormat.DUTCH) {
+                lot.startClock(config.format, (int) ((long) lot.getInitialPrice() * config.dutchStart / 100));
+            } else if (catalogue.getUnits(slot) > 1 || config.pricing.equals("second")) {
+                // Keep the bids that win a unit, and the highest losing one for second pricing
+                int units = catalogue.getUnits(slot);
+                lot.trackTopBids(units, config.pricing.equals("second") ? units + 1 : units);
+            }
+            scheduler.submit(lot, new SendCFP(this, lot));
+        }
+    }
+
+    // The share of the agent the lot of an item gets, see LotScheduler
+    private int weightOf(long value) {
+        return config.highValue > 0 && value >= config.highValue ? config.highValueWeight : 1;
+    }
+
+    /**
+     * Open a lot for the next items of the catalogue, up to bundleSize of them, sold together.
+     * Returns false if no item is waiting.
+     */
+    private boolean startBundle(long now) {
+        List<Integer> slots = new ArrayList<>();
+        while (slots.size() < config.bundleSize) {
+            int slot = catalogue.pollNext(now);
+            if (slot < 0) {
+                break;
+            }
+            slots.add(slot);
+        }
+        if (slots.isEmpty()) {
+            return false;
+        }
+        int n = slots.size();
+        String[] names = new String[n];
+        int[] initialPrices = new int[n];
+        int[] reservePrices = new int[n];
+        long cheapest = Long.MAX_VALUE;
+        long value = 0;
+        int priority = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int slot = slots.get(i);
+            names[i] = catalogue.getName(slot);
+            initialPrices[i] = catalogue.getInitialPrice(slot);
+            reservePrices[i] = catalogue.getReservePrice(slot);
+            cheapest = Math.min(cheapest, Math.max(initialPrices[i], reservePrices[i]));
+            value += initialPrices[i];
+            priority = Math.max(priority, catalogue.getPriority(slot));
+        }
+        // The bidders that can afford at least one of the items
+        AID[] bidders = registry.getBidders(cheapest);
+        if (AuctionLog.isDebug()) {
+            AuctionLog.debug("Starting auction for a bundle of " + n + " items");
+        }
+        Lot lot = engine.open("Bundle of " + n + " items", 0, 0, bidders);
+        lot.setBundle(new Bundle(names, initialPrices, reservePrices));
+        lot.setSchedule(priority, weightOf(value));
+        scheduler.submit(lot, new SendCFP(this, lot));
+        return true;
+    }
+
+    /**
+     * End a round of a clock auction: poll the bidders again at the next price, or close the lot.
+     * In an English auction the last bidder in wins; if the last ones all drop out together,
+     * the first of them to accept the previous price does.
+     */
+    private void endRound(Lot lot) {
+        List<AID> accepted = lot.getAccepted();
+        if (lot.getFormat() == AuctionFormat.ENGLISH && accepted.size() >= 2) {
+            lot.nextRound(accepted.toArray(new AID[0]), lot.getPrice() + config.priceStep);
+            scheduler.submit(lot, new SendCFP(this, lot));
+            return;
+        }
+        if (lot.getFormat() == AuctionFormat.DUTCH && accepted.isEmpty()) {
+            int price = lot.getPrice() - config.priceStep;
+            if (price >= Math.max(lot.getInitialPrice(), lot.getReservePrice())) {
+                lot.nextRound(lot.getActiveBidders(), price);
+                scheduler.submit(lot, new SendCFP(this, lot));
+                return;
+            }
+        }
+        closeLot(lot);
     }
 
     public int getItemInitialPrice(final String title) {
-        ItemInfo itemInfo = catalogue.get(title);
-        if (itemInfo != null) {
-            return itemInfo.getInitialPrice();
+        int slot = catalogue.indexOf(title);
+        if (slot >= 0) {
+            return catalogue.getInitialPrice(slot);
         } else {
             return 0;
         }
@@ -161,309 +685,801 @@ public class Auctioneer extends Agent {
     class ActionPerMinute extends TickerBehaviour {
 
         private Auctioneer myAgent;
-        private String currentItemName;
-        private int rounds = 0;
-        private int maxRounds = 3; // Change this to set the desired number of rounds
 
         public ActionPerMinute(Auctioneer agent) {
-            super(agent, 10000);
+            super(agent, agent.config.tickPeriod);
             myAgent = agent;
         }
 
         @Override
         protected void onTick() {
 
-            // Check if maxRounds has been reached
-            if (rounds >= maxRounds) {
-                System.out.println("Auction has completed " + maxRounds + " rounds for item " + currentItemName + ". Moving to next item.");
-                rounds = 0; // Reset rounds for the next item
-                // Here you should add code to move to the next item in the catalogue
-                return;
-            }
-
-            // Initialize all conditions
-            myAgent.biddersFound = false;
-            myAgent.CFPSent = false;
-            myAgent.bidsReceived = false;
-
             // If there is any item to sell
             if (!myAgent.isCatalogueEmpty()) {
+                if (myAgent.engine.hasFreeSlot()) {
+                    // Find bidders, then open as many lots as there are free slots
+                    myAgent.addBehaviour(new FindBidder(myAgent));
+                }
+                AuctionLog.info(myAgent.engine.report());
+                AuctionLog.info("Bidder registry: " + myAgent.registry);
+                AuctionLog.info("Messages: " + myAgent.engine.messageReport());
+                if (myAgent.config.coordinator != null) {
+                    myAgent.sendShardReport(false);
+                }
+            } else if (myAgent.engine.getOpenCount() == 0) {
+                AuctionLog.info("Please add an item before we can commence auctions");
+            }
+        }
+    }
 
-                if (myAgent.p != null) myAgent.removeBehaviour(myAgent.p);
-                if (myAgent.q != null) myAgent.removeBehaviour(myAgent.q);
-                if (myAgent.r != null) myAgent.removeBehaviour(myAgent.r);
-                if (myAgent.s != null) myAgent.removeBehaviour(myAgent.s);
+    class FindBidder extends OneShotBehaviour {
 
-                currentItemName = myAgent.getFirstItemName();
-                System.out.println("Starting auction for item " + currentItemName);
+        private Auctioneer myAgent;
 
-                System.out.println("Waiting for bidders.. ");
+        public FindBidder(Auctioneer agent) {
+            super(agent);
+            myAgent = agent;
+        }
 
-                // Retrieve the reserve price for the current item
-                Hashtable<String, ItemInfo> catalogue = myAgent.getCatalogue();
-                ItemInfo itemInfo = catalogue.get(currentItemName);
-                int reservePrice = itemInfo.getReservePrice();
+        public void action() {
 
-                // Find Bidder
-                myAgent.p = new FindBidder(myAgent);
-                myAgent.addBehaviour(myAgent.p);
+            // The registry is kept up to date by the DF subscription, no need to search
+            if (myAgent.registry.size() >= myAgent.config.minBidders) {
+                myAgent.startLots();
+            } else {
+                // Try again on the next tick
+                AuctionLog.info("Waiting for bidders.. ");
+            }
+        }
+    }
 
-                // Send CFP to all bidders
-                myAgent.q = new SendCFP(myAgent, currentItemName, myAgent.getItemInitialPrice(currentItemName));
-                myAgent.addBehaviour(myAgent.q);
+    /**
+     * Subscribe to the DF for the agents offering the "blind-auction" service and
+     * apply every (de)registration notification to the bidder registry
+     */
+    class BidderSubscription extends SubscriptionInitiator {
 
-                // Receive all proposals/refusals from bidders and find the highest bidder
-                myAgent.r = new ReceiveBids(myAgent);
-                myAgent.addBehaviour(myAgent.r);
+        private Auctioneer myAgent;
 
-                // Send the request order to the bidder that provided the best offer
-                myAgent.s = new AnnounceWinnerAndUpdateCatalogue(myAgent, currentItemName, reservePrice);
-                myAgent.addBehaviour(myAgent.s);
+        // When the subscription was made (System.nanoTime)
+        private final long subscribedAt = System.nanoTime();
 
-                rounds++; // Increment rounds at the end of each auction round
-            } else {
-                System.out.println("Please add an item before we can commence auctions");
+        public BidderSubscription(Auctioneer agent) {
+            super(agent, createSubscription(agent));
+            myAgent = agent;
+        }
+
+        @Override
+        protected void handleInform(ACLMessage inform) {
+            try {
+                long start = System.nanoTime();
+                DFAgentDescription[] result = DFService.decodeNotification(inform.getContent());
+                myAgent.registry.update(result);
+                long end = System.nanoTime();
+                myAgent.metrics.dfUpdate((end - start) / 1000, (end - subscribedAt) / 1000);
+                AuctionLog.info("Bidder registry updated: " + myAgent.registry.size() + " bidders");
+
+                // Start as soon as enough bidders are there
+                if (myAgent.config.eventDriven && myAgent.engine.getOpenCount() == 0) {
+                    myAgent.startLots();
+                }
+            } catch (FIPAException fe) {
+                fe.printStackTrace();
             }
         }
     }
 
+    private static ACLMessage createSubscription(Auctioneer agent) {
+        DFAgentDescription template = new DFAgentDescription();
+        ServiceDescription sd = new ServiceDescription();
+        sd.setType("blind-auction");
+        template.addServices(sd);
+        return DFService.createSubscriptionMessage(agent, agent.getDefaultDF(), template, null);
+    }
 
-
-
-    class FindBidder extends Behaviour {
+    /**
+     * Send the CFP of a lot (or of the next round of a clock auction) to its bidders
+     */
+    class SendCFP implements Runnable {
 
         private Auctioneer myAgent;
+        private Lot lot;
 
-        public FindBidder(Auctioneer agent) {
-            super(agent);
+        public SendCFP(Auctioneer agent, Lot lot) {
             myAgent = agent;
+            this.lot = lot;
         }
 
-        public void action() {
-
-            if (!myAgent.biddersFound) {
+        public void run() {
 
-                // Update the list of bidders
-                DFAgentDescription template = new DFAgentDescription();
-                ServiceDescription sd = new ServiceDescription();
-                sd.setType("blind-auction");
-                template.addServices(sd);
-                try {
-                    DFAgentDescription[] result = DFService.search(myAgent, template);
-                    if (result.length > 0) {
-                        System.out.println("Found the following " + result.length + " bidders:");
-                        myAgent.bidders = new AID[result.length];
-                        for (int i = 0; i < result.length; ++i) {
-                            myAgent.bidders[i] = result[i].getName();
-                            System.out.println(myAgent.bidders[i].getName());
-                        }
-                        myAgent.biddersFound = true;
-                    }
-                } catch (FIPAException fe) {
-                    fe.printStackTrace();
+            // Send the cfp to all bidders (still in)
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug("Sending CFP for " + lot.getItemName() + " at " + lot.getPrice() + " to "
+                        + lot.getActiveBidders().length + " bidders..");
+            }
+            long deadline = lot.isClock() ? myAgent.config.roundDeadline : myAgent.config.bidDeadline;
+            long replyBy = myAgent.config.clock.millis() + deadline;
+            ACLMessage cfp = createCFP(lot, myAgent.codec, replyBy);
+            lot.opened(cfp.getReplyWith(), myAgent.config.clock.nanos(), replyBy);
+            if (lot.getActiveBidders().length == 0) {
+                // No bidder can afford the lot
+                myAgent.closeLot(lot);
+                return;
+            }
+            if (myAgent.journal != null && lot.getRound() == 1) {
+                myAgent.journal.cfp(lot.getConversationId(), lot.getItemName());
+            }
+            if (lot.getRound() == 1) {
+                myAgent.dispatcher.register(lot.getConversationId(), new ReceiveBids(myAgent, lot));
+                for (LotListener listener : myAgent.listeners) {
+                    listener.lotOpened(lot.getConversationId(), lot.getItemName(), lot.getPrice(), lot.getActiveBidders().length);
                 }
-
             }
+            myAgent.post(cfp, lot.getActiveBidders().length);
+
+            // Close the lot with the bids received so far if some bidders never reply
+            myAgent.scheduler.at(lot, replyBy, new BidDeadline(myAgent, lot));
         }
+    }
 
-        public boolean done() {
-            return myAgent.biddersFound;
+    /**
+     * Build the CFP of a lot for the bidders of its current round.
+     * The CFP of a clock auction carries the asking price and the protocol of the format.
+     */
+    static ACLMessage createCFP(Lot lot, BidCodec codec, long replyBy) {
+        ACLMessage cfp = new ACLMessage(ACLMessage.CFP);
+        for (AID bidder : lot.getActiveBidders()) {
+            cfp.addReceiver(bidder);
+        }
+        if (lot.getBundle() != null) {
+            cfp.setContent(lot.getBundle().encodeItems());
+            cfp.setProtocol(Bundle.PROTOCOL);
+        } else {
+            codec.encodeOffer(cfp, lot.getItemName(), lot.getPrice());
+        }
+        if (lot.isClock()) {
+            cfp.setProtocol(lot.getFormat().getProtocol());
+            cfp.addUserDefinedParameter(INITIAL_PRICE, Integer.toString(lot.getInitialPrice()));
         }
+        cfp.setConversationId(lot.getConversationId());
+        cfp.setReplyWith("cfp-" + lot.getConversationId() + "-" + lot.getRound()); // Unique value, the same in every run
+        // Bidders have to answer by the deadline, like the reply-by of a FIPA contract-net
+        cfp.setReplyByDate(new Date(replyBy));
+        return cfp;
     }
 
     /**
-     * Send CFP to all bidders
+     * Close a lot when its bid deadline expires. For a clock auction, end the round:
+     * the bidders that did not reply in time are out.
      */
-    class SendCFP extends Behaviour {
+    class BidDeadline implements Runnable {
 
         private Auctioneer myAgent;
-        private String itemName;
-        private int itemInitialPrice;
+        private Lot lot;
 
-        public SendCFP(Auctioneer agent, String itemName, int itemInitialPrice) {
-            super(agent);
+        // The CFP of the round this deadline is for
+        private String replyWith;
+
+        public BidDeadline(Auctioneer agent, Lot lot) {
             myAgent = agent;
-            this.itemName = itemName;
-            this.itemInitialPrice = itemInitialPrice;
+            this.lot = lot;
+            replyWith = lot.getReplyWith();
         }
 
-        public void action() {
+        public void run() {
+            if (lot.isClosed() || !replyWith.equals(lot.getReplyWith())) {
+                // The lot or the round has ended in time
+                return;
+            }
+            myAgent.metrics.replyTimeouts(lot.getActiveBidders().length - lot.getRepliesCnt());
+            if (lot.isClock()) {
+                myAgent.endRound(lot);
+            } else {
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug("Bid deadline expired for " + lot.getItemName() + " with "
+                            + lot.getRepliesCnt() + " of " + lot.getBidders().length + " replies");
+                }
+                myAgent.engine.lotExpired();
+                myAgent.closeLot(lot);
+            }
+        }
+    }
+
+    /**
+     * Receive the proposals/refusals of all open lots and find the highest bidder of each.
+     * Replies are routed to their lot by conversation id. Replies to lots that are already
+     * closed are drained from the mailbox and counted as late.
+     */
+    class ReceiveBids implements MessageDispatcher.Handler {
+
+        private Auctioneer myAgent;
+
+        private Lot lot;
+
+        public ReceiveBids(Auctioneer agent, Lot lot) {
+            myAgent = agent;
+            this.lot = lot;
+        }
+
+        public boolean handle(ACLMessage msg) {
+            // Proposals, refusals and delivery failures of this lot
+            myAgent.engine.messageReceived();
+            myAgent.metrics.mailboxDepth(myAgent.getCurQueueSize());
+
+            if (msg.getPerformative() == ACLMessage.INFORM) {
+                return true;
+            }
+            if (lot.isClosed() || !lot.getReplyWith().equals(msg.getInReplyTo())) {
+                // Reply to an earlier round
+                myAgent.lateReply(msg);
+                return true;
+            }
+
+            // Bid received
+            if (msg.getPerformative() == ACLMessage.PROPOSE) {
+                try {
+                    bid(msg);
+                } catch (IllegalArgumentException e) {
+                    // A malformed bid counts as a refusal, so the lot does not wait for it
+                    lot.refuse();
+                    AuctionLog.error("Ignoring a malformed bid from " + msg.getSender().getLocalName() + " for " + lot.getItemName() + ": " + e.getMessage());
+                }
+            } else if (msg.getPerformative() == ACLMessage.FAILURE) {
+                // The CFP could not be delivered, e.g. the bidder has terminated: do not wait for it
+                lot.refuse();
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug("A bidder is unreachable for " + lot.getItemName());
+                }
+            } else {
+                lot.refuse();
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug(msg.getSender().getLocalName() + " is not joining the auction for " + lot.getItemName());
+                }
+            }
+
+            if (lot.getFormat() == AuctionFormat.DUTCH && !lot.getAccepted().isEmpty()) {
+                // The first bidder to accept the price wins
+                myAgent.closeLot(lot);
+            } else if (lot.allRepliesReceived()) {
+                // We have received all bids (of this round)
+                if (lot.isClock()) {
+                    myAgent.endRound(lot);
+                } else {
+                    myAgent.closeLot(lot);
+                }
+            }
+            return true;
+        }
 
-            if (!myAgent.CFPSent && myAgent.biddersFound) {
+        /**
+         * Record a bid. Its content is decoded first, so a malformed one (IllegalArgumentException) leaves the lot as it was.
+         */
+        private void bid(ACLMessage msg) {
+            List<BundleBid> bids = null;
+            int price = lot.getPrice();
+            if (lot.getBundle() != null) {
+                bids = BundleBid.decode(msg.getContent(), msg.getSender(), lot.getBundle().size());
+            } else if (!lot.isClock()) {
+                price = BidCodecs.forMessage(msg).decodeBid(msg);
+            }
 
-                // Send the cfp to all bidders
-                System.out.println("Sending CFP to all bidders..");
-                ACLMessage cfp = new ACLMessage(ACLMessage.CFP);
-                for (int i = 0; i < myAgent.bidders.length; ++i) {
-                    cfp.addReceiver(myAgent.bidders[i]);
+            if (lot.bidReceived() == 1) {
+                myAgent.metrics.firstBid(lot);
+            }
+
+            if (bids != null) {
+                // The bids of a bidder for (sets of) the items of a bundle
+                lot.getBundle().addBids(bids);
+                lot.replied();
+                for (BundleBid bid : bids) {
+                    myAgent.engine.bidReceived();
+                    if (myAgent.journal != null) {
+                        myAgent.journal.bid(lot.getConversationId(), msg.getSender().getName(), bid.getPrice());
+                    }
                 }
-                cfp.setContent(this.itemName + "," + this.itemInitialPrice);
-                cfp.setConversationId("blind-bid");
-                cfp.setReplyWith("cfp" + System.currentTimeMillis()); // Unique value
-                myAgent.send(cfp);
+            } else {
+                // This is an offer, or the acceptance of the asking price of a clock auction
+                myAgent.engine.bidReceived();
+                if (myAgent.journal != null) {
+                    myAgent.journal.bid(lot.getConversationId(), msg.getSender().getName(), price);
+                }
+                if (lot.isClock() ? lot.accept(msg.getSender()) : lot.offer(msg.getSender(), price)) {
+                    // Print the highest bid and bidder
+                    if (AuctionLog.isDebug()) {
+                        AuctionLog.debug("New highest bid for " + lot.getItemName() + ": " + price + " from bidder: " + msg.getSender().getLocalName());
+                    }
+                }
+            }
 
-                // Prepare message template
-                myAgent.mt = MessageTemplate.and(MessageTemplate.MatchConversationId("blind-bid"),
-                        MessageTemplate.MatchInReplyTo(cfp.getReplyWith()));
+            // Inform the bidder that the bid is received (batched acks are sent when the lot closes)
+            if (myAgent.config.ack.equals("each")) {
+                ACLMessage reply = msg.createReply();
+                reply.setPerformative(ACLMessage.INFORM);
+                reply.setContent("Your bid is received");
+                myAgent.post(reply, 1);
+            }
+        }
+    }
+
+    /**
+     * The replies to the lots no longer open: award confirmations, and bids that came too late
+     */
+    class ReceiveClosedLotReplies implements MessageDispatcher.Handler {
+
+        private Auctioneer myAgent;
 
-                myAgent.CFPSent = true;
+        public ReceiveClosedLotReplies(Auctioneer agent) {
+            myAgent = agent;
+        }
 
+        public boolean handle(ACLMessage msg) {
+            if (!AuctionEngine.isLotConversation(msg.getConversationId())) {
+                // e.g. a notification of the DF subscription
+                return false;
             }
+            myAgent.engine.messageReceived();
+            if (msg.getPerformative() != ACLMessage.INFORM) {
+                // The winner confirms the award with an INFORM, nothing more to do
+                myAgent.lateReply(msg);
+            }
+            return true;
         }
+    }
 
-        public boolean done() {
-            return myAgent.CFPSent;
+    private void lateReply(ACLMessage msg) {
+        engine.lateReplyReceived();
+        if (AuctionLog.isDebug()) {
+            AuctionLog.debug("Late reply from " + msg.getSender().getLocalName() + " dropped");
         }
     }
 
     /**
-     * Receive all proposals/refusals from bidders and find the highest bidder
+     * Send the request order to the bidder that provided the best offer
+     *
+     * @condition: if there is any winner
      */
-    class ReceiveBids extends Behaviour {
+    class AnnounceWinnerAndUpdateCatalogue implements Runnable {
 
         private Auctioneer myAgent;
 
-        private int repliesCnt = 0; // The counter of replies from seller agents
+        private Lot lot;
 
-        public ReceiveBids(Auctioneer agent) {
-            super(agent);
+        public AnnounceWinnerAndUpdateCatalogue(Auctioneer agent, Lot lot) {
             myAgent = agent;
+            this.lot = lot;
         }
 
-        public void action() {
+        public void run() {
+            String itemName = lot.getItemName();
+            Set<AID> winners = new HashSet<>();
 
-            if (myAgent.CFPSent) {
-
-                // Receive all proposals/refusals from seller agents
-                ACLMessage msg = myAgent.receive(myAgent.mt);
-                if (msg != null) {
-                    // Bid received
-                    if (msg.getPerformative() == ACLMessage.PROPOSE) {
-
-                        // This is an offer
-                        int price = Integer.parseInt(msg.getContent());
-                        if (myAgent.bestBidder == null || price > myAgent.bestPrice) {
-                            // This is the best offer at present
-                            myAgent.bestPrice = price;
-                            myAgent.bestBidder = msg.getSender();
-                            // Print the highest bid and bidder
-                            System.out.println("New highest bid: " + myAgent.bestPrice + " from bidder: " + myAgent.bestBidder.getLocalName());
-                        }
-
-                        // Inform the bidder that the bid is received
-                        ACLMessage reply = msg.createReply();
-                        reply.setPerformative(ACLMessage.INFORM);
-                        reply.setContent("Your bid is received");
-                        myAgent.send(reply);
-                    }
+            // One acknowledgement for the whole round instead of one per bid
+            if (myAgent.config.ack.equals("batch")) {
+                ACLMessage ack = new ACLMessage(ACLMessage.INFORM);
+                for (AID bidder : lot.getBidders()) {
+                    ack.addReceiver(bidder);
+                }
+                ack.setConversationId(lot.getConversationId());
+                ack.setContent("Bids received for " + itemName + ", bidding is closed");
+                myAgent.post(ack, lot.getBidders().length);
+            }
 
-                    if (msg.getPerformative() == ACLMessage.REFUSE) {
-                        System.out.println(msg.getSender().getLocalName() + " is not joining this auction");
-                    }
+            if (lot.getTopBids() != null) {
+                awardUnits(itemName, winners);
+            } else if (lot.hasWinner()) {
+                // Send the purchase order to the seller that provided the best offer
+                ACLMessage order = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+                order.addReceiver(lot.getBestBidder());
+                myAgent.codec.encodeOffer(order, itemName, lot.getBestPrice());
+                order.setConversationId(lot.getConversationId());
+                order.setReplyWith("order-" + lot.getConversationId());
+
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug("Announcing Winner for " + itemName);
+                }
 
-                    repliesCnt++;
+                Integer price = myAgent.removeItemFromCatalogue(itemName);
+                if (price != null) {
+                    if (AuctionLog.isDebug()) {
+                        AuctionLog.debug(itemName + " sold to agent " + lot.getBestBidder().getName());
+                    }
+                    winners.add(lot.getBestBidder());
+                    myAgent.publish(AuctionResult.Kind.AWARD, lot, itemName, lot.getBestBidder(), lot.getBestPrice());
+                    if (myAgent.journal != null) {
+                        myAgent.journal.award(lot.getConversationId(), itemName, lot.getBestBidder().getName(), lot.getBestPrice());
+                    }
                 } else {
-                    block();
+                    // The requested item has been sold to another buyer..somehow
+                    order.setPerformative(ACLMessage.FAILURE);
+                    order.setContent("not-available");
+                    if (AuctionLog.isDebug()) {
+                        AuctionLog.debug("the item " + itemName + " cannot be sold as the best bidding price is not sufficient..");
+                    }
                 }
+                myAgent.post(order, 1);
+            } else {
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug("No winner for " + itemName + ". Bids were insufficient or didn't meet the reserve price.");
+                }
+                myAgent.publishUnsold(lot, itemName, lot.getBestBidder() == null ? 0 : lot.getBestPrice());
+            }
 
-                if (repliesCnt >= myAgent.bidders.length) {
-                    // We have received all bids
-                    myAgent.bidsReceived = true;
+            // Tell the other bidders they lost, so they can release the funds reserved for their bid
+            ACLMessage notice = new ACLMessage(ACLMessage.REJECT_PROPOSAL);
+            int losers = 0;
+            for (AID bidder : lot.getBidders()) {
+                if (!winners.contains(bidder)) {
+                    notice.addReceiver(bidder);
+                    losers++;
                 }
+            }
+            notice.setConversationId(lot.getConversationId());
+            notice.setContent("Lot " + itemName + " is closed");
+            if (losers > 0) {
+                myAgent.post(notice, losers);
+            }
+
+            boolean sold = !winners.isEmpty();
+            if (!sold && myAgent.journal != null) {
+                myAgent.journal.close(lot.getConversationId());
+            }
 
+            if (myAgent.engine.close(lot, sold)) {
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug("Auction has completed " + myAgent.config.maxRounds + " rounds for item " + itemName + ". Moving to next item.");
+                }
+                myAgent.removeItemFromCatalogue(itemName);
+                if (myAgent.journal != null) {
+                    myAgent.journal.remove(itemName);
+                }
+            } else if (myAgent.catalogue.contains(itemName)) {
+                // Another round for this item (or its units left), behind the items already waiting
+                myAgent.catalogue.requeue(itemName);
             }
+            myAgent.fireLotClosed(lot, !sold ? "no sale"
+                    : winners.size() > 1 ? winners.size() + " units sold"
+                    : "sold to " + winners.iterator().next().getLocalName() + " for " + lot.getBestPrice());
+            myAgent.lotResolved();
         }
 
-        public boolean done() {
-            return myAgent.bidsReceived;
+        /**
+         * Award the units of the item to the highest bids at or above its minimum price.
+         * With "second" pricing every winner pays the highest losing bid (at least the
+         * minimum price), otherwise its own bid. The units left stay in the catalogue.
+         */
+        private void awardUnits(String itemName, Set<AID> winners) {
+            TopBids top = lot.getTopBids();
+            top.sort();
+            int count = 0;
+            while (count < Math.min(lot.getUnits(), top.size()) && top.getPrice(count) >= lot.getMinimumPrice()) {
+                count++;
+            }
+            if (count == 0) {
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug("No winner for " + itemName + ". Bids were insufficient or didn't meet the reserve price.");
+                }
+                myAgent.publishUnsold(lot, itemName, top.size() == 0 ? 0 : top.getPrice(0));
+                return;
+            }
+            int clearingPrice = lot.getMinimumPrice();
+            if (count < top.size()) {
+                clearingPrice = Math.max(clearingPrice, top.getPrice(count));
+            }
+
+            boolean second = myAgent.config.pricing.equals("second");
+            for (int rank = 0; rank < count; rank++) {
+                AID bidder = top.getBidder(rank);
+                int price = second ? clearingPrice : top.getPrice(rank);
+                ACLMessage order = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+                order.addReceiver(bidder);
+                myAgent.codec.encodeOffer(order, itemName, price);
+                order.setConversationId(lot.getConversationId());
+                order.setReplyWith("order-" + lot.getConversationId() + "-" + rank);
+                myAgent.post(order, 1);
+                winners.add(bidder);
+                myAgent.publish(AuctionResult.Kind.AWARD, lot, itemName, bidder, price);
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug("A unit of " + itemName + " sold to agent " + bidder.getName() + " for " + price
+                            + " (bid " + top.getPrice(rank) + ")");
+                }
+                if (myAgent.journal != null) {
+                    myAgent.journal.award(lot.getConversationId(), itemName, bidder.getName(), price);
+                }
+            }
+
+            int slot = myAgent.catalogue.indexOf(itemName);
+            int left = slot < 0 ? 0 : myAgent.catalogue.getUnits(slot) - count;
+            if (left > 0) {
+                myAgent.catalogue.setUnits(slot, left);
+                if (myAgent.journal != null) {
+                    myAgent.journal.insert(itemName, lot.getInitialPrice(), lot.getReservePrice(),
+                            myAgent.catalogue.getPriority(slot), myAgent.catalogue.getStartTime(slot), left);
+                }
+            } else {
+                myAgent.removeItemFromCatalogue(itemName);
+            }
         }
     }
 
     /**
-     * Send the request order to the bidder that provided the best offer
-     *
-     * @condition: if there is any winner
+     * Find the winning bids of a bundle, award them and put the unsold items back in line
      */
-    class AnnounceWinnerAndUpdateCatalogue extends Behaviour {
+    class ClearBundle implements Runnable {
 
         private Auctioneer myAgent;
 
-        private String itemName;
-        private int reservePrice; // Reserve price for the item
+        private Lot lot;
 
-        private boolean isDone = false;
+        // The winners, set by the solver thread
+        private volatile WinnerDetermination.Result result;
 
-        public AnnounceWinnerAndUpdateCatalogue(Auctioneer agent, String itemName, int reservePrice) {
-            this.itemName = itemName;
+        public ClearBundle(Auctioneer agent, Lot lot) {
             myAgent = agent;
-            this.reservePrice = reservePrice;
+            this.lot = lot;
         }
 
-        public void action() {
-            if (myAgent.bidsReceived) {
-                if (myAgent.bestPrice >= myAgent.getItemInitialPrice(this.itemName) && myAgent.bestPrice >= this.reservePrice) {
-                    // Send the purchase order to the seller that provided the best offer
-                    ACLMessage order = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
-                    order.addReceiver(myAgent.bestBidder);
-                    order.setContent(this.itemName + "," + myAgent.bestPrice);
-                    order.setConversationId("blind-bid");
-                    order.setReplyWith("order" + System.currentTimeMillis());
-
-                    System.out.println("Announcing Winner for " + this.itemName);
-
-                    Integer price = (Integer) myAgent.removeItemFromCatalogue(this.itemName);
-                    if (price != null) {
-                        System.out.println(itemName + " sold to agent " + myAgent.bestBidder.getName());
-                    } else {
-                        // The requested item has been sold to another buyer..somehow
-                        order.setPerformative(ACLMessage.FAILURE);
-                        order.setContent("not-available");
-                        System.out.println("the item " + itemName + " cannot be sold as the best bidding price is not sufficient..");
+        /**
+         * Start the solver on the common fork-join pool. It runs for at most wdpBudget while the agent
+         * goes on with the other lots, then hands the result back through the O2A queue.
+         */
+        public void run() {
+            WinnerDetermination solver = new WinnerDetermination(lot.getBundle(), ForkJoinPool.commonPool());
+            long budget = myAgent.config.wdpBudget;
+            ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    result = solver.solve(budget);
+                } catch (RuntimeException e) {
+                    AuctionLog.error("Cannot clear " + lot.getItemName(), e);
+                    result = new WinnerDetermination.Result(new ArrayList<>(), 0, false, 0, 0);
+                }
+                myAgent.cleared.add(this);
+                // If the queue is full the loader is running anyway and finds the bundle
+                myAgent.offerO2A(BUNDLE_CLEARED);
+            });
+        }
+
+        /**
+         * Announce the winners, on the agent thread
+         */
+        void announce() {
+            Bundle bundle = lot.getBundle();
+            String conversationId = lot.getConversationId();
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug(lot.getItemName() + " cleared: " + result);
+            }
+
+            boolean[] sold = new boolean[bundle.size()];
+            Set<AID> winners = new HashSet<>();
+            for (BundleBid bid : result.getWinners()) {
+                String items = bundle.describe(bid.getItems());
+                ACLMessage order = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+                order.addReceiver(bid.getBidder());
+                myAgent.codec.encodeOffer(order, items, bid.getPrice());
+                order.setConversationId(conversationId);
+                order.setReplyWith("order-" + conversationId + "-" + bid.getBidder().getLocalName());
+                myAgent.post(order, 1);
+                winners.add(bid.getBidder());
+                myAgent.publish(AuctionResult.Kind.AWARD, lot, items, bid.getBidder(), bid.getPrice());
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug(items + " sold to agent " + bid.getBidder().getName() + " for " + bid.getPrice());
+                }
+
+                for (int item : bid.getItems()) {
+                    String itemName = bundle.getName(item);
+                    sold[item] = true;
+                    myAgent.removeItemFromCatalogue(itemName);
+                    myAgent.engine.itemSold(itemName);
+                    if (myAgent.journal != null) {
+                        myAgent.journal.remove(itemName);
+                    }
+                }
+                if (myAgent.journal != null) {
+                    myAgent.journal.award(conversationId, bundle.getName(bid.getItems()[0]), bid.getBidder().getName(), bid.getPrice());
+                }
+            }
+
+            // Tell the other bidders they lost, so they can release the funds reserved for their bids
+            ACLMessage notice = new ACLMessage(ACLMessage.REJECT_PROPOSAL);
+            int losers = 0;
+            for (AID bidder : lot.getBidders()) {
+                if (!winners.contains(bidder)) {
+                    notice.addReceiver(bidder);
+                    losers++;
+                }
+            }
+            notice.setConversationId(conversationId);
+            notice.setContent(lot.getItemName() + " is closed");
+            if (losers > 0) {
+                myAgent.post(notice, losers);
+            }
+
+            for (int item = 0; item < bundle.size(); item++) {
+                if (sold[item]) {
+                    continue;
+                }
+                String itemName = bundle.getName(item);
+                myAgent.publish(AuctionResult.Kind.NO_SALE, lot, itemName, null, 0);
+                if (myAgent.engine.itemUnsold(itemName)) {
+                    if (AuctionLog.isDebug()) {
+                        AuctionLog.debug("Auction has completed " + myAgent.config.maxRounds + " rounds for item " + itemName + ". Moving to next item.");
+                    }
+                    myAgent.removeItemFromCatalogue(itemName);
+                    if (myAgent.journal != null) {
+                        myAgent.journal.remove(itemName);
                     }
-                    myAgent.send(order);
-
-                    // Re-Initialize all conditions
-                    myAgent.biddersFound = false;
-                    myAgent.CFPSent = false;
-                    myAgent.bidsReceived = false;
-                    myAgent.bestPrice = 0;
-                    myAgent.bestBidder = null;
                 } else {
-                    System.out.println("No winner. Bids were insufficient or didn't meet the reserve price.");
+                    myAgent.catalogue.requeue(itemName);
                 }
-                isDone = true;
             }
+            if (winners.isEmpty() && myAgent.journal != null) {
+                myAgent.journal.close(conversationId);
+            }
+            myAgent.engine.closeBundle(lot, !winners.isEmpty());
+            myAgent.fireLotClosed(lot, winners.isEmpty() ? "no sale" : winners.size() + " winning bundle bids");
+            myAgent.lotResolved();
         }
+    }
+
+    /**
+     * Receive the items the coordinator routes to this shard
+     */
+    class ReceiveCatalogueUpdates implements MessageDispatcher.Handler {
 
-        public boolean done() {
-            return isDone;
+        private Auctioneer myAgent;
+
+        public ReceiveCatalogueUpdates(Auctioneer agent) {
+            myAgent = agent;
+        }
+
+        public boolean handle(ACLMessage msg) {
+            if (!AuctionCoordinator.CATALOGUE_UPDATE.equals(msg.getProtocol())) {
+                return false;
+            }
+            BidCodec codec = BidCodecs.forMessage(msg);
+            String units = msg.getUserDefinedParameter("units");
+            myAgent.addToCatalogue(codec.decodeItemName(msg), codec.decodePrice(msg),
+                    Integer.parseInt(msg.getUserDefinedParameter("reserve")),
+                    Integer.parseInt(msg.getUserDefinedParameter("priority")),
+                    Long.parseLong(msg.getUserDefinedParameter("start")),
+                    units == null ? 1 : Integer.parseInt(units));
+            myAgent.catalogueChanged();
+            return true;
         }
     }
 
     /**
-     * Receive the highest bid from bidders
+     * Add the items handed over through the O2A queue (single items and whole files) to the catalogue,
+     * at most importBatch items per action, so that a large import does not hold up the bids of open lots.
+     * The agent wakes it up when an object is put in the queue. It also hands the bundles cleared by
+     * the solver over to the lot scheduler.
      */
-    class ReceiveHighestBid extends CyclicBehaviour {
+    class CatalogueLoader extends CyclicBehaviour {
 
         private Auctioneer myAgent;
 
-        public ReceiveHighestBid(Auctioneer agent) {
+        // The file being imported (null if none)
+        private CatalogueImport current;
+
+        public CatalogueLoader(Auctioneer agent) {
             super(agent);
             myAgent = agent;
         }
 
         public void action() {
-            ACLMessage msg = myAgent.receive(MessageTemplate.MatchPerformative(HIGHEST_BID));
-            if (msg != null) {
-                // Update the highest bid received
-                int bid = Integer.parseInt(msg.getContent());
-                if (bid > myAgent.highestBid) {
-                    myAgent.highestBid = bid;
-                    System.out.println("Received new highest bid: " + bid);
+            int added = 0;
+            int batch = myAgent.config.importBatch;
+            while (added < batch) {
+                CatalogueItem item = current != null ? nextImported() : null;
+                if (item == null && current == null) {
+                    Object o = myAgent.getO2AObject();
+                    if (o == null) {
+                        break;
+                    }
+                    if (o == BUNDLE_CLEARED) {
+                        continue;
+                    }
+                    if (o instanceof CatalogueImport) {
+                        current = (CatalogueImport) o;
+                        AuctionLog.info("Importing " + current.getPath());
+                        continue;
+                    }
+                    item = (CatalogueItem) o;
                 }
-            } else {
+                if (item != null) {
+                    myAgent.addToCatalogue(item.getName(), item.getInitialPrice(), item.getReservePrice(),
+                            item.getPriority(), item.getStartTime(), item.getUnits());
+                    added++;
+                }
+            }
+            if (added > 0) {
+                myAgent.catalogueChanged();
+            }
+
+            // After the queue, so the bundle of every wake-up object taken above is there
+            ClearBundle bundle;
+            while ((bundle = myAgent.cleared.poll()) != null) {
+                myAgent.scheduler.submit(bundle.lot, bundle::announce);
+            }
+            if (current == null && myAgent.getO2AQueueSize() == 0) {
                 block();
             }
         }
+
+        // The next item of the current file, null (and no current file) at its end
+        private CatalogueItem nextImported() {
+            CatalogueItem item = null;
+            try {
+                item = current.next();
+            } catch (IOException e) {
+                AuctionLog.error("Cannot import " + current.getPath(), e);
+            }
+            if (item == null) {
+                AuctionLog.info("Imported " + current.getImported() + " items from " + current.getPath()
+                        + (current.getSkipped() > 0 ? " (" + current.getSkipped() + " skipped)" : ""));
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    AuctionLog.error("Cannot close " + current.getPath(), e);
+                }
+                current = null;
+            }
+            return item;
+        }
+    }
+
+    /**
+     * Dump the metrics to the metrics file periodically
+     */
+    class MetricsDump extends TickerBehaviour {
+
+        private Auctioneer myAgent;
+
+        public MetricsDump(Auctioneer agent) {
+            super(agent, agent.config.metricsInterval);
+            myAgent = agent;
+        }
+
+        @Override
+        protected void onTick() {
+            myAgent.dumpMetrics();
+        }
+    }
+
+    /**
+     * Force the journal to disk periodically, so records are committed in groups
+     * even when there are fewer than groupCommit of them
+     */
+    class JournalSync extends TickerBehaviour {
+
+        private Auctioneer myAgent;
+
+        public JournalSync(Auctioneer agent) {
+            super(agent, agent.config.syncInterval);
+            myAgent = agent;
+        }
+
+        @Override
+        protected void onTick() {
+            myAgent.journal.sync();
+        }
+    }
+
+    /**
+     * Save a snapshot of the market periodically, for a warm start after a restart.
+     * It is written from the agent thread, as the catalogue is not thread-safe.
+     */
+    class SnapshotSave extends TickerBehaviour {
+
+        private Auctioneer myAgent;
+
+        public SnapshotSave(Auctioneer agent) {
+            super(agent, agent.config.snapshotInterval);
+            myAgent = agent;
+        }
+
+        @Override
+        protected void onTick() {
+            myAgent.saveSnapshot();
+        }
     }
 }
@@ -2,18 +2,32 @@ import jade.core.AID;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 
 /**
  @author Giovanni Caire - TILAB
  editted by Yuri Ardila, 2014 for blindAuction project
  */
-class AuctioneerGUI extends JFrame {
+class AuctioneerGUI extends JFrame implements LotListener {
+
+    // How many closed lots the results list keeps
+    private static final int MAX_RESULTS = 200;
 
     private Auctioneer myAgent;
 
     private JTextField titleField, priceField,reserveField;
 
+    // The open lots (conversation id, item, price, bidders) and the last results
+    private DefaultTableModel lotsModel = new DefaultTableModel(new Object[] {"Lot", "Item", "Price", "Bidders"}, 0) {
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private DefaultListModel<String> resultsModel = new DefaultListModel<>();
+    private JLabel statusLabel = new JLabel(" ");
+
     AuctioneerGUI(Auctioneer a) {
         super(a.getLocalName() + ": Add item");
 
@@ -30,7 +44,15 @@ class AuctioneerGUI extends JFrame {
         p.add(new JLabel("Reserve Price:")); // Label for reserve price
         reserveField = new JTextField(15); // Input field for reserve price
         p.add(reserveField);
-        getContentPane().add(p, BorderLayout.CENTER);
+        getContentPane().add(p, BorderLayout.NORTH);
+
+        // Live lot status, pushed by the agent (see LotListener)
+        JPanel status = new JPanel(new GridLayout(1, 2));
+        JTable lotsTable = new JTable(lotsModel);
+        status.add(new JScrollPane(lotsTable));
+        status.add(new JScrollPane(new JList<>(resultsModel)));
+        status.setPreferredSize(new Dimension(640, 240));
+        getContentPane().add(status, BorderLayout.CENTER);
 
         JButton addButton = new JButton("Add");
         addButton.addActionListener( new ActionListener() {
@@ -39,7 +61,11 @@ class AuctioneerGUI extends JFrame {
                     String title = titleField.getText().trim();
                     String price = priceField.getText().trim();
                     String reservePrice = reserveField.getText().trim(); // Get the value of the reserve price field
-                    myAgent.updateCatalogue(title, Integer.parseInt(price), Integer.parseInt(reservePrice)); // Pass the reserve price to the updateCatalogue method
+                    // Never blocks the event dispatch thread: the item is queued for the agent
+                    if (!myAgent.updateCatalogue(title, Integer.parseInt(price), Integer.parseInt(reservePrice))) {
+                        JOptionPane.showMessageDialog(AuctioneerGUI.this, "The auctioneer is busy, try again.", "Busy", JOptionPane.WARNING_MESSAGE);
+                        return;
+                    }
                     titleField.setText("");
                     priceField.setText("");
                     reserveField.setText(""); // Clear the reserve price field after adding the item
@@ -49,8 +75,28 @@ class AuctioneerGUI extends JFrame {
                 }
             }
         } );
-        p = new JPanel();
-        p.add(addButton);
+
+        // Import a CSV or JSON catalogue; the agent reads the file, not the GUI
+        JButton importButton = new JButton("Import...");
+        importButton.addActionListener( new ActionListener() {
+            public void actionPerformed(ActionEvent ev) {
+                JFileChooser chooser = new JFileChooser();
+                if (chooser.showOpenDialog(AuctioneerGUI.this) == JFileChooser.APPROVE_OPTION) {
+                    File file = chooser.getSelectedFile();
+                    if (myAgent.importCatalogue(file.toPath())) {
+                        statusLabel.setText("Importing " + file.getName() + "...");
+                    } else {
+                        JOptionPane.showMessageDialog(AuctioneerGUI.this, "The auctioneer is busy, try again.", "Busy", JOptionPane.WARNING_MESSAGE);
+                    }
+                }
+            }
+        } );
+        p = new JPanel(new BorderLayout());
+        JPanel buttons = new JPanel();
+        buttons.add(addButton);
+        buttons.add(importButton);
+        p.add(buttons, BorderLayout.NORTH);
+        p.add(statusLabel, BorderLayout.SOUTH);
         getContentPane().add(p, BorderLayout.SOUTH);
 
         // Make the agent terminate when the user closes
@@ -72,4 +118,29 @@ class AuctioneerGUI extends JFrame {
         setLocation(centerX - getWidth() / 2, centerY - getHeight() / 2);
         super.setVisible(true);
     }
+
+    // The listener methods are called on the agent thread: the models are only touched on the EDT
+
+    public void lotOpened(String conversationId, String itemName, int price, int bidders) {
+        SwingUtilities.invokeLater(() -> lotsModel.addRow(new Object[] {conversationId, itemName, price, bidders}));
+    }
+
+    public void lotClosed(String conversationId, String itemName, String result) {
+        SwingUtilities.invokeLater(() -> {
+            for (int row = 0; row < lotsModel.getRowCount(); row++) {
+                if (conversationId.equals(lotsModel.getValueAt(row, 0))) {
+                    lotsModel.removeRow(row);
+                    break;
+                }
+            }
+            resultsModel.add(0, itemName + ": " + result);
+            if (resultsModel.size() > MAX_RESULTS) {
+                resultsModel.remove(MAX_RESULTS);
+            }
+        });
+    }
+
+    public void catalogueChanged(int size, int openLots, int lotsClosed) {
+        SwingUtilities.invokeLater(() -> statusLabel.setText(size + " items in catalogue, " + openLots + " lots open, " + lotsClosed + " closed"));
+    }
 }
\ No newline at end of file
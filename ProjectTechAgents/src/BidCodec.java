@@ -0,0 +1,23 @@
+import jade.lang.acl.ACLMessage;
+
+/**
+ * Encodes and decodes the content of auction messages.
+ * Offers (CFPs and awards) carry an item name and a price, bids carry a price only.
+ * The codec of a message is named by its ACL language, so a receiver always decodes
+ * a message with the codec it was encoded with (see BidCodecs.forMessage).
+ * The decode methods throw IllegalArgumentException when the content is malformed.
+ */
+public interface BidCodec {
+
+    String getLanguage();
+
+    void encodeOffer(ACLMessage msg, String itemName, int price);
+
+    String decodeItemName(ACLMessage msg);
+
+    int decodePrice(ACLMessage msg);
+
+    void encodeBid(ACLMessage msg, int price);
+
+    int decodeBid(ACLMessage msg);
+}
@@ -0,0 +1,227 @@
+import jade.lang.acl.ACLMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The available bid codecs.
+ */
+public class BidCodecs {
+
+    public static final BidCodec STRING = new StringCodec();
+    public static final BidCodec LENGTH_PREFIXED = new LengthPrefixedCodec();
+    public static final BidCodec BINARY = new BinaryCodec();
+
+    /**
+     * The codec for the given setting name ("string", "lp" or "binary")
+     */
+    public static BidCodec forName(String name) {
+        switch (name) {
+            case "string":
+                return STRING;
+            case "lp":
+                return LENGTH_PREFIXED;
+            case "binary":
+                return BINARY;
+            default:
+                throw new IllegalArgumentException("Unknown codec " + name);
+        }
+    }
+
+    /**
+     * The codec a message was encoded with. Messages without a language use the original string format.
+     */
+    public static BidCodec forMessage(ACLMessage msg) {
+        String language = msg.getLanguage();
+        if (BINARY.getLanguage().equals(language)) {
+            return BINARY;
+        }
+        if (LENGTH_PREFIXED.getLanguage().equals(language)) {
+            return LENGTH_PREFIXED;
+        }
+        return STRING;
+    }
+
+    // Parse the decimal digits of s from index start without creating a substring.
+    // Throws NumberFormatException if there are none, or if they do not fit in an int.
+    static int parseInt(String s, int start) {
+        if (s == null) {
+            throw new NumberFormatException("No price");
+        }
+        boolean negative = start < s.length() && s.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= s.length()) {
+            throw new NumberFormatException("Missing price in " + s);
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid price in " + s);
+            }
+            value = value * 10 + (c - '0');
+            if (value > limit) {
+                throw new NumberFormatException("Price out of range in " + s);
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * The original "itemName,price" format. The price is taken after the last comma,
+     * so item names may contain commas.
+     */
+    static class StringCodec implements BidCodec {
+
+        public String getLanguage() {
+            return "auction-string";
+        }
+
+        public void encodeOffer(ACLMessage msg, String itemName, int price) {
+            msg.setLanguage(getLanguage());
+            msg.setContent(itemName + "," + price);
+        }
+
+        public String decodeItemName(ACLMessage msg) {
+            String content = msg.getContent();
+            int comma = content == null ? -1 : content.lastIndexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException("No item name in " + content);
+            }
+            return content.substring(0, comma);
+        }
+
+        public int decodePrice(ACLMessage msg) {
+            String content = msg.getContent();
+            int comma = content == null ? -1 : content.lastIndexOf(',');
+            return parseInt(content, comma + 1);
+        }
+
+        public void encodeBid(ACLMessage msg, int price) {
+            msg.setLanguage(getLanguage());
+            msg.setContent(String.valueOf(price));
+        }
+
+        public int decodeBid(ACLMessage msg) {
+            return parseInt(msg.getContent(), 0);
+        }
+    }
+
+    /**
+     * Text format "length:itemNamePrice", e.g. "12:Antique Vase1200".
+     * Still readable in the sniffer but it does not depend on any separator.
+     */
+    static class LengthPrefixedCodec extends StringCodec {
+
+        public String getLanguage() {
+            return "auction-lp";
+        }
+
+        public void encodeOffer(ACLMessage msg, String itemName, int price) {
+            msg.setLanguage(getLanguage());
+            msg.setContent(itemName.length() + ":" + itemName + price);
+        }
+
+        public String decodeItemName(ACLMessage msg) {
+            String content = msg.getContent();
+            int colon = content == null ? -1 : content.indexOf(':');
+            return content.substring(colon + 1, colon + 1 + nameLength(content, colon));
+        }
+
+        public int decodePrice(ACLMessage msg) {
+            String content = msg.getContent();
+            int colon = content == null ? -1 : content.indexOf(':');
+            return parseInt(content, colon + 1 + nameLength(content, colon));
+        }
+
+        // The length of the item name, checked against the content (at most 9 digits, so it cannot overflow)
+        private static int nameLength(String content, int colon) {
+            if (colon <= 0 || colon > 9) {
+                throw new IllegalArgumentException("Invalid name length in " + content);
+            }
+            int length = 0;
+            for (int i = 0; i < colon; i++) {
+                char c = content.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Invalid name length in " + content);
+                }
+                length = length * 10 + (c - '0');
+            }
+            if (colon + 1 + length > content.length()) {
+                throw new IllegalArgumentException("Name length beyond the content in " + content);
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Byte-sequence content. An offer is the UTF-8 item name prefixed by its length (2 bytes)
+     * and followed by the price (4 bytes, big endian); a bid is the price only.
+     * Item names are at most 0xffff bytes long.
+     */
+    static class BinaryCodec implements BidCodec {
+
+        public String getLanguage() {
+            return "auction-binary";
+        }
+
+        public void encodeOffer(ACLMessage msg, String itemName, int price) {
+            byte[] name = itemName.getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xffff) {
+                throw new IllegalArgumentException("Item name too long for a binary offer: " + itemName.substring(0, 64) + "...");
+            }
+            byte[] content = new byte[2 + name.length + 4];
+            content[0] = (byte) (name.length >>> 8);
+            content[1] = (byte) name.length;
+            System.arraycopy(name, 0, content, 2, name.length);
+            putInt(content, 2 + name.length, price);
+            msg.setLanguage(getLanguage());
+            msg.setByteSequenceContent(content);
+        }
+
+        public String decodeItemName(ACLMessage msg) {
+            byte[] content = content(msg, 2 + 4);
+            int length = ((content[0] & 0xff) << 8) | (content[1] & 0xff);
+            if (2 + length + 4 != content.length) {
+                throw new IllegalArgumentException("Malformed offer: name of " + length + " bytes in " + content.length + " bytes");
+            }
+            return new String(content, 2, length, StandardCharsets.UTF_8);
+        }
+
+        public int decodePrice(ACLMessage msg) {
+            byte[] content = content(msg, 2 + 4);
+            return getInt(content, content.length - 4);
+        }
+
+        public void encodeBid(ACLMessage msg, int price) {
+            byte[] content = new byte[4];
+            putInt(content, 0, price);
+            msg.setLanguage(getLanguage());
+            msg.setByteSequenceContent(content);
+        }
+
+        public int decodeBid(ACLMessage msg) {
+            return getInt(content(msg, 4), 0);
+        }
+
+        // The content of a message, if it has at least the given number of bytes
+        private static byte[] content(ACLMessage msg, int min) {
+            byte[] content = msg.getByteSequenceContent();
+            if (content == null || content.length < min) {
+                throw new IllegalArgumentException("Malformed content: " + (content == null ? 0 : content.length) + " bytes");
+            }
+            return content;
+        }
+
+        private static void putInt(byte[] b, int off, int v) {
+            b[off] = (byte) (v >>> 24);
+            b[off + 1] = (byte) (v >>> 16);
+            b[off + 2] = (byte) (v >>> 8);
+            b[off + 3] = (byte) v;
+        }
+
+        private static int getInt(byte[] b, int off) {
+            return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+        }
+    }
+}
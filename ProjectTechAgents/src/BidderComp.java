@@ -1,60 +1,292 @@
 import jade.core.Agent;
 import jade.core.behaviours.*;
 import jade.lang.acl.ACLMessage;
-import jade.lang.acl.MessageTemplate;
 import jade.domain.DFService;
 import jade.domain.FIPAException;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.Property;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 public class BidderComp extends Agent {
 
-    // The catalogue of items for sale (maps the title of an item to its price)
-    public String itemName;
+    // The item of the last CFP the bidder joined
+    private String itemName;
 
-    // The budget left for this bidder
-    public int budget;
+    // The funds of this bidder, reserved per lot while bidding
+    private BidderLedger ledger;
 
     // The highest bid received from the auctioneer
-    public int highestBid;
+    private int highestBid;
 
     // The bidder's last bid
-    public int lastBid;
+    private int lastBid;
 
-    // Random number generator
-    static Random rn = new Random();
+    // How the bidder prices its bids ("strategy=..." argument)
+    private BiddingStrategy strategy = BiddingStrategies.INCREMENTAL;
+
+    // What items are worth to this bidder, in percent above their initial price
+    private int valuationMarkup;
+
+    // Random number generator of this bidder
+    private SplittableRandom rn;
+
+    // How often the funds are advertised to the DF ("advertise=..." argument, ms; 0 not to advertise them)
+    private long advertisePeriod = 0;
+
+    // The funds last advertised
+    private long advertised = -1;
+
+    // The snapshot of the ledger ("snapshot=..." argument, none if null), loaded at startup
+    // and saved when the bidder has spent more, see LedgerSnapshot
+    private Path snapshot;
+
+    // What the bidder had spent at the last save
+    private long savedSpent = -1;
+
+    public BidderComp() {
+    }
+
+    // A bidder outside a platform, for benchmarks
+    BidderComp(int budget, BiddingStrategy strategy) {
+        ledger = new BidderLedger(budget);
+        this.strategy = strategy;
+        rn = new SplittableRandom(42);
+        valuationMarkup = 20;
+    }
+
+    // A bidder outside a platform with its own random stream, for the simulator
+    BidderComp(int budget, BiddingStrategy strategy, long seed) {
+        ledger = new BidderLedger(budget);
+        this.strategy = strategy;
+        rn = new SplittableRandom(seed);
+        valuationMarkup = rn.nextInt(50);
+    }
+
+    public BiddingStrategy getStrategy() {
+        return strategy;
+    }
+
+    public RandomGenerator getRandom() {
+        return rn;
+    }
+
+    public BidderLedger getLedger() {
+        return ledger;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public void setItemName(String itemName) {
+        this.itemName = itemName;
+    }
+
+    public int getHighestBid() {
+        return highestBid;
+    }
+
+    public void setHighestBid(int highestBid) {
+        this.highestBid = highestBid;
+    }
+
+    // The initial price plus the markup (%), multiplied before dividing so cheap items get their markup too
+    public int valuationOf(int itemInitialPrice) {
+        return (int) Math.min(Integer.MAX_VALUE, itemInitialPrice + (long) itemInitialPrice * valuationMarkup / 100);
+    }
+
+    /**
+     * The price to bid for an item according to the strategy of the bidder,
+     * or -1 if it does not bid (e.g. the available funds are not adequate)
+     */
+    public int bidFor(int itemInitialPrice) {
+        int bidPrice = strategy.bid(itemInitialPrice, highestBid, lastBid, valuationOf(itemInitialPrice), ledger.getAvailable(), rn);
+
+        // Store the last bid
+        if (bidPrice >= 0) {
+            lastBid = bidPrice;
+        }
+        return bidPrice;
+    }
+
+    /**
+     * The bids for the items of a bundle: one for every item the strategy bids for on its own,
+     * and one for all of these together at the sum of their bids plus up to 20%, as they are
+     * worth more together, as far as the funds allow
+     */
+    public List<BundleBid> bundleBids(Bundle bundle) {
+        List<BundleBid> bids = new ArrayList<>();
+        int[] items = new int[bundle.size()];
+        int count = 0;
+        long sum = 0;
+        for (int i = 0; i < bundle.size(); i++) {
+            int price = bidFor(bundle.getInitialPrice(i));
+            if (price >= 0) {
+                bids.add(new BundleBid(getAID(), new int[] {i}, price));
+                items[count++] = i;
+                sum += price;
+            }
+        }
+        if (count > 1) {
+            long price = Math.min(sum + sum * rn.nextInt(20) / 100, ledger.getAvailable());
+            bids.add(new BundleBid(getAID(), Arrays.copyOf(items, count), (int) price));
+        }
+        return bids;
+    }
+
+    /**
+     * Whether to accept the asking price of a round of a clock auction for an item.
+     * The funds reserved at the previous price of the same lot count as available.
+     */
+    public boolean accepts(String lot, int price, int itemInitialPrice) {
+        long available = ledger.getAvailable() + ledger.getReservation(lot);
+        return strategy.accept(price, valuationOf(itemInitialPrice), available);
+    }
 
     // Put agent initializations here
     protected void setup() {
 
-        // Setup budget randomly between 1000 - 2000
-        budget = rn.nextInt(1000) + 1000;
-        System.out.println("Hello! Bidder "+getAID().getName()+" is ready with budget " + budget);
+        String budgetDistribution = null;
+        long seed = 0;
+        Object[] args = getArguments();
+        if (args != null) {
+            for (Object arg : args) {
+                if (!(arg instanceof String)) {
+                    continue;
+                }
+                String s = (String) arg;
+                if (s.startsWith("budget=")) {
+                    budgetDistribution = s.substring("budget=".length());
+                } else if (s.startsWith("strategy=")) {
+                    strategy = BiddingStrategies.forName(s.substring("strategy=".length()));
+                } else if (s.startsWith("seed=")) {
+                    seed = Long.parseLong(s.substring("seed=".length()));
+                } else if (s.startsWith("advertise=")) {
+                    advertisePeriod = Long.parseLong(s.substring("advertise=".length()));
+                } else if (s.startsWith("snapshot=")) {
+                    snapshot = Paths.get(s.substring("snapshot=".length()));
+                }
+            }
+        }
+
+        // With "seed=..." the bidder draws the same budget, valuations and bids in every run
+        rn = new SplittableRandom(seed != 0 ? AuctionConfig.seedOf(seed, getLocalName()) : ThreadLocalRandom.current().nextLong());
+
+        // Setup budget randomly between 1000 - 2000, unless a distribution is given as "budget=..."
+        int budget = budgetDistribution != null ? PriceDistribution.parse(budgetDistribution).sample(rn) : rn.nextInt(1000) + 1000;
+        valuationMarkup = rn.nextInt(50);
+        ledger = new BidderLedger(budget);
+        if (snapshot != null && Files.exists(snapshot)) {
+            loadLedger();
+        }
+        AuctionLog.info("Hello! Bidder "+getAID().getName()+" is ready with " + ledger);
 
         // Register as a bidder to the yellow pages
+        try {
+            DFService.register(this, describe());
+        }
+        catch (FIPAException fe) {
+            fe.printStackTrace();
+        }
+
+        // Keep the advertised funds up to date, so the auctioneer only sends the CFPs of the lots the bidder can afford
+        if (advertisePeriod > 0) {
+            addBehaviour(new BudgetBeacon(this, advertisePeriod));
+        }
+
+        if (snapshot != null) {
+            addBehaviour(new LedgerSnapshot(this, LedgerSnapshot.PERIOD));
+        }
+
+        // A single behaviour receives the messages and hands them over by performative
+        MessageDispatcher dispatcher = new MessageDispatcher(this);
+
+        // Receive CFP from Auctioneer
+        dispatcher.on(ACLMessage.CFP, new ReceiveCFPAsComp(this));
+
+        // Receive item --as the auction winner
+        dispatcher.on(ACLMessage.ACCEPT_PROPOSAL, new ReceiveItemAsWinnerComp(this));
+
+        // Receive the lots lost
+        ReceiveLossComp loss = new ReceiveLossComp(this);
+        dispatcher.on(ACLMessage.REJECT_PROPOSAL, loss);
+        dispatcher.on(ACLMessage.FAILURE, loss);
+
+        // Receive INFORM
+        dispatcher.on(ACLMessage.INFORM, new ReceiveINFORMComp());
+        addBehaviour(dispatcher);
+    }
+
+    /**
+     * The description of the bidder in the DF. When advertising its funds, the most the bidder may
+     * still pay: its reservations may come back, so this is never less than what it can afford.
+     */
+    DFAgentDescription describe() {
         DFAgentDescription dfd = new DFAgentDescription();
         dfd.setName(getAID());
         ServiceDescription sd = new ServiceDescription();
         sd.setType("blind-auction");
         sd.setName("Blind-Auction");
-        dfd.addServices(sd);
-        try {
-            DFService.register(this, dfd);
-        }
-        catch (FIPAException fe) {
-            fe.printStackTrace();
+        if (advertisePeriod > 0) {
+            advertised = ledger.getAvailable() + ledger.getReserved();
+            sd.addProperties(new Property(BidderRegistry.BUDGET, String.valueOf(advertised)));
         }
+        dfd.addServices(sd);
+        return dfd;
+    }
 
-        // Add the behaviour for receiving CFP from Auctioneer
-        addBehaviour(new ReceiveCFPAsComp(this));
+    public long getAdvertised() {
+        return advertised;
+    }
 
-        // Add the behaviour for receiving item --as the auction winner
-        addBehaviour(new ReceiveItemAsWinnerComp(this));
+    /**
+     * Restore the funds and valuations of the last run. The reservations of that run are given
+     * back: its lots were interrupted and the auctioneer puts their items on auction again.
+     */
+    private void loadLedger() {
+        try (MarketSnapshot.Reader in = new MarketSnapshot.Reader(snapshot)) {
+            if (in.section() != MarketSnapshot.LEDGER) {
+                throw new IOException(snapshot + " is not the snapshot of a bidder");
+            }
+            long available = in.getLong();
+            long reserved = in.getLong();
+            long spent = in.getLong();
+            valuationMarkup = in.getInt();
+            ledger = new BidderLedger(available + reserved, spent);
+            savedSpent = spent;
+        } catch (IOException | UncheckedIOException e) {
+            AuctionLog.error("Cannot load the snapshot " + snapshot, e);
+        }
+    }
 
-        // Add the behaviour for receiving INFORM
-        addBehaviour(new ReceiveINFORMComp());
+    /**
+     * Save the funds of the bidder if it has spent more since the last save
+     */
+    void saveLedger() {
+        if (ledger.getSpent() == savedSpent) {
+            return;
+        }
+        long spent = ledger.getSpent();
+        try (MarketSnapshot.Writer out = new MarketSnapshot.Writer(snapshot)) {
+            out.section(MarketSnapshot.LEDGER, 1);
+            out.putLong(ledger.getAvailable());
+            out.putLong(ledger.getReserved());
+            out.putLong(spent);
+            out.putInt(valuationMarkup);
+            out.commit();
+            savedSpent = spent;
+        } catch (IOException | UncheckedIOException e) {
+            AuctionLog.error("Cannot save the snapshot " + snapshot, e);
+        }
     }
 
     // Put agent clean-up operations here
@@ -67,8 +299,12 @@ public class BidderComp extends Agent {
             fe.printStackTrace();
         }
 
+        if (snapshot != null) {
+            saveLedger();
+        }
+
         // Printout a dismissal message
-        System.out.println("Bidder "+getAID().getName()+" terminating");
+        AuctionLog.info("Bidder "+getAID().getName()+" terminating, " + ledger);
     }
 }
 
@@ -76,72 +312,130 @@ public class BidderComp extends Agent {
  * Process CFP as a computer, whether to bid on that item or not
  * All-in strategy. Bid with all the money it has.
  */
-class ReceiveCFPAsComp extends CyclicBehaviour {
+class ReceiveCFPAsComp implements MessageDispatcher.Handler {
 
     private BidderComp myAgent;
 
     public ReceiveCFPAsComp(BidderComp agent) {
-        super(agent);
         myAgent = agent;
     }
 
-    public void action() {
-        MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.CFP);
-        ACLMessage msg = myAgent.receive(mt);
+    public boolean handle(ACLMessage msg) {
 
-        // Check budget, if 0, terminate
-        if (myAgent.budget <= 0){
-            System.out.println("No budget left");
+        // Check budget, if 0 and nothing is pending, terminate
+        if (myAgent.getLedger().getAvailable() <= 0 && myAgent.getLedger().getOpenReservations() == 0){
+            AuctionLog.info("No budget left");
             myAgent.doDelete();
         }
 
-        if (msg != null) {
+        if (msg.getReplyByDate() != null && msg.getReplyByDate().getTime() < System.currentTimeMillis()) {
+            // Too late to bid, the auctioneer has already closed this lot
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug(myAgent.getLocalName() + " missed the deadline of a CFP");
+            }
+        }
+        else if (Bundle.PROTOCOL.equals(msg.getProtocol())) {
+            myAgent.send(bidForBundle(msg));
+        }
+        else {
             // CFP Message received. Process it
-            String ans = msg.getContent();
-            String[] parts = ans.split(",");
-            String itemName = parts[0];
-            int itemInitialPrice = Integer.parseInt(parts[1]);
+            BidCodec codec = BidCodecs.forMessage(msg);
+            String itemName = codec.decodeItemName(msg);
+            int itemInitialPrice = codec.decodePrice(msg);
             ACLMessage reply = msg.createReply();
 
-            System.out.println("Auction commenced. Current item is " + itemName);
+            if (AuctionFormat.forProtocol(msg.getProtocol()).isClock()) {
+                // A round of a clock auction: the CFP carries the current price
+                int price = itemInitialPrice;
+                myAgent.setHighestBid(price);
+                acceptPrice(msg, reply, itemName, price);
+                myAgent.send(reply);
+                return true;
+            }
+
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug("Auction commenced. Current item is " + itemName);
+            }
           //  System.out.println("Current item initial price is " + itemInitialPrice);
 
             // Check if budget is adequate
-            if (myAgent.budget >= itemInitialPrice) {
-                int bidPrice;
-                myAgent.itemName = itemName;
-
-                // Calculate the initial bid as the initial price plus a small random number
-                Random rn = new Random();
-                int randomIncrement = rn.nextInt(100);
-                bidPrice = itemInitialPrice + randomIncrement;
-
-                // Adjust bidding strategy based on the highest bid received
-                if (myAgent.highestBid > myAgent.lastBid && myAgent.highestBid > itemInitialPrice) {
-                    // Adjust bid based on the highest bid
-                    bidPrice = myAgent.highestBid + rn.nextInt(100);
-                    System.out.println("Adjusting bid based on the highest bid: " + myAgent.highestBid);
-                }
-
-                // Store the last bid
-                myAgent.lastBid = bidPrice;
+            int bidPrice = myAgent.bidFor(itemInitialPrice);
+            // Funds are reserved until the lot is won or lost
+            if (bidPrice >= 0 && myAgent.getLedger().reserve(msg.getConversationId(), bidPrice)) {
+                myAgent.setItemName(itemName);
 
                 // Send the bid
                 reply.setPerformative(ACLMessage.PROPOSE);
-                reply.setContent(String.valueOf(bidPrice));
-                System.out.println(myAgent.getLocalName() + " sent bid with price " + bidPrice);
+                codec.encodeBid(reply, bidPrice);
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug(myAgent.getLocalName() + " sent bid with price " + bidPrice);
+                }
             }
             // Else, cannot join the auction
             else {
                 reply.setPerformative(ACLMessage.REFUSE);
                 reply.setContent("Not joining this one..");
-                System.out.println(myAgent.getLocalName() + " is not joining this auction");
+                if (AuctionLog.isDebug()) {
+                    AuctionLog.debug(myAgent.getLocalName() + " is not joining this auction");
+                }
             }
 
-            myAgent.send(reply);
+            // Some strategies hold their bid back until just before the deadline
+            long delay = msg.getReplyByDate() == null ? 0
+                    : myAgent.getStrategy().delay(msg.getReplyByDate().getTime() - System.currentTimeMillis());
+            if (delay > 0) {
+                myAgent.addBehaviour(new WakerBehaviour(myAgent, delay) {
+                    protected void onWake() {
+                        myAgent.send(reply);
+                    }
+                });
+            } else {
+                myAgent.send(reply);
+            }
         }
-        else {
-            block();
+        return true;
+    }
+
+    // Bid for a bundle. Only one of the bids can win, so the funds reserved are those of the highest.
+    private ACLMessage bidForBundle(ACLMessage cfp) {
+        ACLMessage reply = cfp.createReply();
+        List<BundleBid> bids = myAgent.bundleBids(Bundle.decodeItems(cfp.getContent()));
+        int highest = -1;
+        for (BundleBid bid : bids) {
+            highest = Math.max(highest, bid.getPrice());
+        }
+        if (highest >= 0 && myAgent.getLedger().reserve(cfp.getConversationId(), highest)) {
+            reply.setPerformative(ACLMessage.PROPOSE);
+            reply.setContent(BundleBid.encode(bids));
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug(myAgent.getLocalName() + " sent " + bids.size() + " bids for a bundle");
+            }
+        } else {
+            reply.setPerformative(ACLMessage.REFUSE);
+            reply.setContent("Not joining this one..");
+        }
+        return reply;
+    }
+
+    // Accept the asking price of a round (PROPOSE) or drop out (REFUSE).
+    // The reservation of the lot follows the price.
+    private void acceptPrice(ACLMessage cfp, ACLMessage reply, String itemName, int price) {
+        String lot = cfp.getConversationId();
+        int itemInitialPrice = Integer.parseInt(cfp.getUserDefinedParameter(Auctioneer.INITIAL_PRICE));
+        BidderLedger ledger = myAgent.getLedger();
+        if (myAgent.accepts(lot, price, itemInitialPrice)) {
+            ledger.release(lot);
+            if (ledger.reserve(lot, price)) {
+                myAgent.setItemName(itemName);
+                reply.setPerformative(ACLMessage.PROPOSE);
+                BidCodecs.forMessage(cfp).encodeBid(reply, price);
+                return;
+            }
+        }
+        reply.setPerformative(ACLMessage.REFUSE);
+        reply.setContent("Out at " + price);
+        if (AuctionLog.isDebug()) {
+            AuctionLog.debug(myAgent.getLocalName() + " is out of the auction for " + itemName + " at " + price);
         }
     }
 }
@@ -149,54 +443,104 @@ class ReceiveCFPAsComp extends CyclicBehaviour {
 /**
  * Get the item as the auction winner
  */
-class ReceiveItemAsWinnerComp extends CyclicBehaviour {
+class ReceiveItemAsWinnerComp implements MessageDispatcher.Handler {
 
     private BidderComp myAgent;
 
     public ReceiveItemAsWinnerComp(BidderComp agent) {
-        super(agent);
         myAgent = agent;
     }
 
-    public void action() {
-        MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.ACCEPT_PROPOSAL);
-        ACLMessage msg = myAgent.receive(mt);
-        if (msg != null) {
-            // ACCEPT_PROPOSAL Message received. Process it
-            String ans = msg.getContent();
-            String[] parts = ans.split(",");
-            String itemName = parts[0];
-            int price = Integer.parseInt(parts[1]);
-            ACLMessage reply = msg.createReply();
+    public boolean handle(ACLMessage msg) {
+        // ACCEPT_PROPOSAL Message received. Process it
+        BidCodec codec = BidCodecs.forMessage(msg);
+        String itemName = codec.decodeItemName(msg);
+        int price = codec.decodePrice(msg);
+        ACLMessage reply = msg.createReply();
+
+        reply.setPerformative(ACLMessage.INFORM);
+        if (AuctionLog.isDebug()) {
+            AuctionLog.debug("Congratulations! You have won the auction");
+            AuctionLog.debug(itemName+" is now yours! With the price " + price);
+        }
 
-            reply.setPerformative(ACLMessage.INFORM);
-            System.out.println("Congratulations! You have won the auction");
-            System.out.println(itemName+" is now yours! With the price " + price);
+        myAgent.send(reply);
 
-            myAgent.send(reply);
+        // Cut money from budget
+        myAgent.getLedger().commit(msg.getConversationId(), price);
+        return true;
+    }
+}
 
-            // Cut money from budget
-            myAgent.budget -= price;
-        }
-        else {
-            block();
-        }
+/**
+ * A lot is lost (REJECT_PROPOSAL) or cannot be delivered (FAILURE): release its funds
+ */
+class ReceiveLossComp implements MessageDispatcher.Handler {
+
+    private BidderComp myAgent;
+
+    public ReceiveLossComp(BidderComp agent) {
+        myAgent = agent;
+    }
+
+    public boolean handle(ACLMessage msg) {
+        myAgent.getLedger().release(msg.getConversationId());
+        return true;
     }
 }
 
 /**
  * Process INFORM messages
  */
-class ReceiveINFORMComp extends CyclicBehaviour {
-    public void action() {
-        MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.INFORM);
-        ACLMessage msg = myAgent.receive(mt);
-        if (msg != null) {
-            // INFORM Message received. Print it.
-            System.out.println(msg.getContent());
+class ReceiveINFORMComp implements MessageDispatcher.Handler {
+    public boolean handle(ACLMessage msg) {
+        // INFORM Message received. Print it.
+        AuctionLog.debug(msg.getContent());
+        return true;
+    }
+}
+
+/**
+ * Advertise the funds of the bidder to the DF when they have changed, i.e. after a lot is won
+ */
+class BudgetBeacon extends TickerBehaviour {
+
+    private BidderComp myAgent;
+
+    public BudgetBeacon(BidderComp agent, long period) {
+        super(agent, period);
+        myAgent = agent;
+    }
+
+    protected void onTick() {
+        BidderLedger ledger = myAgent.getLedger();
+        if (ledger.getAvailable() + ledger.getReserved() == myAgent.getAdvertised()) {
+            return;
         }
-        else {
-            block();
+        try {
+            DFService.modify(myAgent, myAgent.describe());
+        }
+        catch (FIPAException fe) {
+            fe.printStackTrace();
         }
     }
 }
+
+/**
+ * Save the ledger of the bidder periodically, so a restarted bidder keeps what it has spent
+ */
+class LedgerSnapshot extends TickerBehaviour {
+
+    static final long PERIOD = 10000;
+
+    private BidderComp myAgent;
+
+    public LedgerSnapshot(BidderComp agent, long period) {
+        super(agent, period);
+        myAgent = agent;
+    }
+
+    protected void onTick() {
+        myAgent.saveLedger();
+    }
+}
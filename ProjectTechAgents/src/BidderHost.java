@@ -0,0 +1,236 @@
+import jade.core.Agent;
+import jade.core.behaviours.TickerBehaviour;
+import jade.core.behaviours.WakerBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.domain.DFService;
+import jade.domain.FIPAException;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * One agent bidding for many logical bidders (see BidderPool), so a JVM can hold 100k bidders
+ * instead of a few thousand BidderComp agents with a thread each. The auctioneer sees the host
+ * as one bidder: the host answers every CFP with the best bid of its bidders (or, in a clock
+ * auction, accepts the price if one of them does) and remembers which bidder it bid for.
+ * Each host reports only its own best bid, so with several units or second pricing the
+ * bidders of one host do not compete with each other. Bundle CFPs are refused.
+ *
+ * Arguments are "key=value": bidders=10000, budget=uniform:1000:2000, strategy=incremental, seed=0,
+ * snapshot=file (the bidders are loaded from it if it exists, and saved to it when they have spent more)
+ */
+public class BidderHost extends Agent {
+
+    // The user-defined parameter of a bid naming the logical bidder it is for
+    public static final String BIDDER = "bidder";
+
+    // How often the bidders are saved to the snapshot, if they have spent more (ms)
+    private static final long SNAPSHOT_PERIOD = 10000;
+
+    private BidderPool pool;
+
+    // The reservation of every lot the host has bid on (conversation id -> bidder, amount)
+    private final Map<String, int[]> reservations = new HashMap<>();
+
+    // The tasks deciding the bids of the logical bidders
+    private final ForkJoinPool tasks = ForkJoinPool.commonPool();
+
+    // The snapshot of the bidders (none if null), and what they had spent at the last save
+    private Path snapshot;
+    private long savedSpent = -1;
+
+    protected void setup() {
+        int bidders = 10000;
+        String budget = "uniform:1000:2000";
+        BiddingStrategy strategy = BiddingStrategies.INCREMENTAL;
+        long seed = 0;
+        Object[] args = getArguments();
+        if (args != null) {
+            for (Object arg : args) {
+                String s = String.valueOf(arg);
+                if (s.startsWith("bidders=")) {
+                    bidders = Integer.parseInt(s.substring("bidders=".length()));
+                } else if (s.startsWith("budget=")) {
+                    budget = s.substring("budget=".length());
+                } else if (s.startsWith("strategy=")) {
+                    strategy = BiddingStrategies.forName(s.substring("strategy=".length()));
+                } else if (s.startsWith("seed=")) {
+                    seed = Long.parseLong(s.substring("seed=".length()));
+                } else if (s.startsWith("snapshot=")) {
+                    snapshot = Paths.get(s.substring("snapshot=".length()));
+                }
+            }
+        }
+        long start = System.currentTimeMillis();
+        if (snapshot != null && Files.exists(snapshot)) {
+            try (MarketSnapshot.Reader in = new MarketSnapshot.Reader(snapshot)) {
+                pool = new BidderPool(in, strategy);
+                savedSpent = pool.getSpent();
+            } catch (IOException | UncheckedIOException e) {
+                AuctionLog.error("Cannot load the snapshot " + snapshot, e);
+            }
+        }
+        if (pool == null) {
+            pool = new BidderPool(bidders, PriceDistribution.parse(budget), strategy,
+                    seed != 0 ? AuctionConfig.seedOf(seed, getLocalName()) : 0);
+        }
+        AuctionLog.info("Bidder host " + getAID().getName() + " is ready with " + pool.size() + " bidders ("
+                + (System.currentTimeMillis() - start) + " ms)");
+
+        // Register as a bidder to the yellow pages
+        DFAgentDescription dfd = new DFAgentDescription();
+        dfd.setName(getAID());
+        ServiceDescription sd = new ServiceDescription();
+        sd.setType("blind-auction");
+        sd.setName("Blind-Auction");
+        dfd.addServices(sd);
+        try {
+            DFService.register(this, dfd);
+        }
+        catch (FIPAException fe) {
+            fe.printStackTrace();
+        }
+
+        MessageDispatcher dispatcher = new MessageDispatcher(this);
+        dispatcher.on(ACLMessage.CFP, this::receiveCFP);
+        dispatcher.on(ACLMessage.ACCEPT_PROPOSAL, this::receiveAward);
+        dispatcher.on(ACLMessage.REJECT_PROPOSAL, this::receiveLoss);
+        dispatcher.on(ACLMessage.FAILURE, this::receiveLoss);
+        dispatcher.on(ACLMessage.INFORM, msg -> {
+            AuctionLog.debug(msg.getContent());
+            return true;
+        });
+        addBehaviour(dispatcher);
+
+        if (snapshot != null) {
+            addBehaviour(new TickerBehaviour(this, SNAPSHOT_PERIOD) {
+                protected void onTick() {
+                    saveSnapshot();
+                }
+            });
+        }
+    }
+
+    protected void takeDown() {
+        try {
+            DFService.deregister(this);
+        }
+        catch (FIPAException fe) {
+            fe.printStackTrace();
+        }
+        if (snapshot != null) {
+            saveSnapshot();
+        }
+        AuctionLog.info("Bidder host " + getAID().getName() + " terminating, " + pool);
+    }
+
+    // Save the bidders if they have spent more since the last save
+    private void saveSnapshot() {
+        long spent = pool.getSpent();
+        if (spent == savedSpent) {
+            return;
+        }
+        try (MarketSnapshot.Writer out = new MarketSnapshot.Writer(snapshot)) {
+            pool.save(out, reservations.values());
+            out.commit();
+            savedSpent = spent;
+        } catch (IOException | UncheckedIOException e) {
+            AuctionLog.error("Cannot save the snapshot " + snapshot, e);
+        }
+    }
+
+    private boolean receiveCFP(ACLMessage cfp) {
+        if (cfp.getReplyByDate() != null && cfp.getReplyByDate().getTime() < System.currentTimeMillis()) {
+            // Too late to bid, the auctioneer has already closed this lot
+            return true;
+        }
+        ACLMessage reply = cfp.createReply();
+        reply.setPerformative(ACLMessage.REFUSE);
+        reply.setContent("Not joining this one..");
+        if (Bundle.PROTOCOL.equals(cfp.getProtocol())) {
+            send(reply);
+            return true;
+        }
+
+        BidCodec codec = BidCodecs.forMessage(cfp);
+        String lot = cfp.getConversationId();
+        int price = codec.decodePrice(cfp);
+        if (AuctionFormat.forProtocol(cfp.getProtocol()).isClock()) {
+            // The asking price of a round: the reservation of the lot moves to the bidder that accepts it
+            int itemInitialPrice = Integer.parseInt(cfp.getUserDefinedParameter(Auctioneer.INITIAL_PRICE));
+            int[] held = reservations.get(lot);
+            long best = pool.bestAcceptor(price, itemInitialPrice, held == null ? -1 : held[0], held == null ? 0 : held[1], tasks);
+            if (best >= 0) {
+                if (held != null) {
+                    pool.release(held[0], held[1]);
+                    reservations.remove(lot);
+                }
+                propose(reply, codec, lot, BidderPool.bidderOf(best), price);
+            }
+            send(reply);
+            return true;
+        }
+
+        long best = pool.bestBid(price, tasks);
+        if (best >= 0) {
+            propose(reply, codec, lot, BidderPool.bidderOf(best), BidderPool.valueOf(best));
+        }
+
+        // Some strategies hold their bid back until just before the deadline
+        long delay = cfp.getReplyByDate() == null ? 0
+                : pool.getStrategy().delay(cfp.getReplyByDate().getTime() - System.currentTimeMillis());
+        if (delay > 0) {
+            addBehaviour(new WakerBehaviour(this, delay) {
+                protected void onWake() {
+                    send(reply);
+                }
+            });
+        } else {
+            send(reply);
+        }
+        return true;
+    }
+
+    // Turn the reply into a bid of the given bidder, if its funds allow
+    private void propose(ACLMessage reply, BidCodec codec, String lot, int bidder, int price) {
+        if (!pool.reserve(bidder, price)) {
+            return;
+        }
+        reservations.put(lot, new int[] {bidder, price});
+        reply.setPerformative(ACLMessage.PROPOSE);
+        reply.setContent(null);
+        codec.encodeBid(reply, price);
+        reply.addUserDefinedParameter(BIDDER, getLocalName() + "/" + bidder);
+    }
+
+    private boolean receiveAward(ACLMessage msg) {
+        int price = BidCodecs.forMessage(msg).decodePrice(msg);
+        int[] held = reservations.remove(msg.getConversationId());
+        if (held != null) {
+            pool.commit(held[0], held[1], price);
+            if (AuctionLog.isDebug()) {
+                AuctionLog.debug(getLocalName() + "/" + held[0] + " won " + BidCodecs.forMessage(msg).decodeItemName(msg) + " for " + price);
+            }
+        }
+        ACLMessage reply = msg.createReply();
+        reply.setPerformative(ACLMessage.INFORM);
+        send(reply);
+        return true;
+    }
+
+    private boolean receiveLoss(ACLMessage msg) {
+        int[] held = reservations.remove(msg.getConversationId());
+        if (held != null) {
+            pool.release(held[0], held[1]);
+        }
+        return true;
+    }
+}
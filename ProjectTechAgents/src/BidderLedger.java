@@ -0,0 +1,121 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Funds of a bidder. A bid reserves its price when it is proposed, and the reservation is
+ * committed when the lot is won or released when it is lost, so a bidder taking part in many
+ * lots at the same time can never commit more than its budget.
+ * Lock-free: funds are updated by compare-and-set, reservations live in a concurrent map keyed
+ * by the conversation id of the lot.
+ */
+public class BidderLedger {
+
+    // Funds neither reserved nor spent
+    private final AtomicLong available;
+
+    private final AtomicLong reserved = new AtomicLong();
+    private final AtomicLong spent = new AtomicLong();
+
+    // The reservation of every lot the bidder has bid on (conversation id -> amount)
+    private final ConcurrentHashMap<String, Integer> reservations = new ConcurrentHashMap<>();
+
+    public BidderLedger(long budget) {
+        available = new AtomicLong(budget);
+    }
+
+    /**
+     * The funds of a bidder restored from a snapshot, of which some are already spent
+     */
+    public BidderLedger(long available, long spent) {
+        this.available = new AtomicLong(available);
+        this.spent.set(spent);
+    }
+
+    /**
+     * Reserve funds for a bid. Returns false if the available funds are not enough
+     * or the lot already has a reservation.
+     */
+    public boolean reserve(String lot, int amount) {
+        if (!take(amount)) {
+            return false;
+        }
+        if (reservations.putIfAbsent(lot, amount) != null) {
+            available.addAndGet(amount);
+            return false;
+        }
+        reserved.addAndGet(amount);
+        return true;
+    }
+
+    /**
+     * The lot is won at the given price: spend its reservation. If the price differs from
+     * the reservation, the difference is given back or taken from the available funds.
+     * Returns false if the funds are not enough.
+     */
+    public boolean commit(String lot, int price) {
+        Integer amount = reservations.remove(lot);
+        int held = amount == null ? 0 : amount;
+        reserved.addAndGet(-held);
+        if (price > held && !take(price - held)) {
+            available.addAndGet(held);
+            return false;
+        }
+        if (price < held) {
+            available.addAndGet(held - price);
+        }
+        spent.addAndGet(price);
+        return true;
+    }
+
+    /**
+     * The lot is lost: give its reservation back
+     */
+    public void release(String lot) {
+        Integer amount = reservations.remove(lot);
+        if (amount != null) {
+            reserved.addAndGet(-amount);
+            available.addAndGet(amount);
+        }
+    }
+
+    // Take funds from the available ones if there are enough
+    private boolean take(long amount) {
+        while (true) {
+            long current = available.get();
+            if (current < amount) {
+                return false;
+            }
+            if (available.compareAndSet(current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    public long getAvailable() {
+        return available.get();
+    }
+
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    public long getSpent() {
+        return spent.get();
+    }
+
+    /**
+     * The amount reserved for a lot (0 if none)
+     */
+    public int getReservation(String lot) {
+        return reservations.getOrDefault(lot, 0);
+    }
+
+    public int getOpenReservations() {
+        return reservations.size();
+    }
+
+    @Override
+    public String toString() {
+        return "available " + available.get() + ", reserved " + reserved.get() + " in " + reservations.size() + " lots, spent " + spent.get();
+    }
+}
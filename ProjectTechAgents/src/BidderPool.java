@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Many logical bidders in a few primitive arrays (about 21 bytes each), for a BidderHost.
+ * Bidder i has the same valuations and bids as a BidderComp with the same strategy, but no
+ * agent, thread, ledger or random number generator object of its own. The bidders of a
+ * CFP are decided by pooled fork-join tasks, CHUNK bidders per task.
+ * The funds a bidder has reserved for a lot are kept by the host (one reservation per lot).
+ */
+public class BidderPool {
+
+    // Bidders decided by one task
+    private static final int CHUNK = 4096;
+
+    private final BiddingStrategy strategy;
+    private final int size;
+
+    // Funds neither reserved nor spent, last bid, valuation markup (%) and random state of every bidder
+    private final long[] available;
+    private final int[] lastBid;
+    private final byte[] markup;
+    private final long[] random;
+
+    private long spent = 0;
+
+    /**
+     * Bidders with budgets drawn from the given distribution. With a seed other than 0 they
+     * are the same in every run.
+     */
+    public BidderPool(int size, PriceDistribution budget, BiddingStrategy strategy, long seed) {
+        this.strategy = strategy;
+        this.size = size;
+        available = new long[size];
+        lastBid = new int[size];
+        markup = new byte[size];
+        random = new long[size];
+        SplittableRandom rn = new SplittableRandom(seed != 0 ? seed : ThreadLocalRandom.current().nextLong());
+        for (int i = 0; i < size; i++) {
+            random[i] = rn.nextLong();
+            available[i] = budget.sample(rn);
+            markup[i] = (byte) rn.nextInt(50);
+        }
+    }
+
+    /**
+     * Bidders restored from a snapshot (see save())
+     */
+    public BidderPool(MarketSnapshot.Reader in, BiddingStrategy strategy) throws IOException {
+        if (in.section() != MarketSnapshot.POOL) {
+            throw new IOException("Not the snapshot of a bidder pool");
+        }
+        this.strategy = strategy;
+        size = in.count();
+        available = new long[size];
+        lastBid = new int[size];
+        markup = new byte[size];
+        random = new long[size];
+        spent = in.getLong();
+        in.getLongs(available);
+        in.getInts(lastBid);
+        in.getBytes(markup);
+        in.getLongs(random);
+    }
+
+    /**
+     * Save the bidders. The funds they have reserved (bidder, amount) are given back, as the
+     * lots they are for will be put on auction again after a restart.
+     */
+    public void save(MarketSnapshot.Writer out, Collection<int[]> reservations) {
+        long[] funds = available.clone();
+        for (int[] held : reservations) {
+            funds[held[0]] += held[1];
+        }
+        out.section(MarketSnapshot.POOL, size);
+        out.putLong(spent);
+        out.putLongs(funds);
+        out.putInts(lastBid);
+        out.putBytes(markup);
+        out.putLongs(random);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public BiddingStrategy getStrategy() {
+        return strategy;
+    }
+
+    // The same valuation as BidderComp.valuationOf, with the markup of the given bidder
+    public int valuationOf(int bidder, int itemInitialPrice) {
+        return (int) Math.min(Integer.MAX_VALUE, itemInitialPrice + (long) itemInitialPrice * markup[bidder] / 100);
+    }
+
+    public long getAvailable(int bidder) {
+        return available[bidder];
+    }
+
+    public long getSpent() {
+        return spent;
+    }
+
+    /**
+     * The bidder with the highest bid for an item and its bid, packed by pack(), or -1 if none bids.
+     * Like BidderComp.bidFor, every bidder that bids remembers its bid.
+     */
+    public long bestBid(int itemInitialPrice, ForkJoinPool pool) {
+        return pool.invoke(new Search(0, size, (bidder, rn) -> {
+            int price = strategy.bid(itemInitialPrice, 0, lastBid[bidder], valuationOf(bidder, itemInitialPrice), available[bidder], rn);
+            if (price >= 0) {
+                lastBid[bidder] = price;
+            }
+            return price;
+        }));
+    }
+
+    /**
+     * The bidder with the highest valuation that accepts the asking price of a clock round, packed with
+     * its valuation, or -1 if none does. The holder of the lot's reservation may count it as available.
+     */
+    public long bestAcceptor(int price, int itemInitialPrice, int holder, int held, ForkJoinPool pool) {
+        return pool.invoke(new Search(0, size, (bidder, rn) -> {
+            int valuation = valuationOf(bidder, itemInitialPrice);
+            long funds = available[bidder] + (bidder == holder ? held : 0);
+            return strategy.accept(price, valuation, funds) ? valuation : -1;
+        }));
+    }
+
+    // The highest value wins, then the lowest bidder
+    static long pack(int value, int bidder) {
+        return ((long) value << 32) | (0xFFFFFFFFL - bidder);
+    }
+
+    static int valueOf(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    static int bidderOf(long packed) {
+        return (int) (0xFFFFFFFFL - (packed & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Take funds for a bid. Returns false if the bidder does not have enough.
+     */
+    public boolean reserve(int bidder, int amount) {
+        if (available[bidder] < amount) {
+            return false;
+        }
+        available[bidder] -= amount;
+        return true;
+    }
+
+    public void release(int bidder, int amount) {
+        available[bidder] += amount;
+    }
+
+    /**
+     * A lot is won at the given price with the given amount reserved
+     */
+    public void commit(int bidder, int held, int price) {
+        available[bidder] += held - price;
+        spent += price;
+    }
+
+    /**
+     * The bidders that have spent all their funds
+     */
+    public int getBroke() {
+        int broke = 0;
+        for (long funds : available) {
+            if (funds <= 0) {
+                broke++;
+            }
+        }
+        return broke;
+    }
+
+    @Override
+    public String toString() {
+        return size + " bidders, " + getBroke() + " without funds, spent " + spent;
+    }
+
+    private interface Score {
+        // A value >= 0 of the bidder, or -1 to leave it out
+        int of(int bidder, RandomGenerator rn);
+    }
+
+    /**
+     * The random stream of the bidder a task is deciding, kept in its slot of the random array (SplitMix64)
+     */
+    private final class Slot implements RandomGenerator {
+
+        int bidder;
+
+        public long nextLong() {
+            long z = (random[bidder] += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * The best score of the bidders from..to, split in chunks
+     */
+    private final class Search extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final Score score;
+
+        Search(int from, int to, Score score) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+        }
+
+        protected Long compute() {
+            if (to - from > CHUNK) {
+                List<Search> parts = new ArrayList<>();
+                for (int start = from; start < to; start += CHUNK) {
+                    parts.add(new Search(start, Math.min(to, start + CHUNK), score));
+                }
+                long best = -1;
+                for (Search part : invokeAll(parts)) {
+                    best = Math.max(best, part.join());
+                }
+                return best;
+            }
+            Slot rn = new Slot();
+            long best = -1;
+            for (int bidder = from; bidder < to; bidder++) {
+                rn.bidder = bidder;
+                int value = score.of(bidder, rn);
+                if (value >= 0) {
+                    best = Math.max(best, pack(value, bidder));
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import jade.core.AID;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.Property;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+
+import java.util.*;
+
+/**
+ * In-memory directory of the bidders registered to the DF.
+ * It is kept up to date by DF subscription notifications, so looking up the
+ * bidders of a lot does not need a round-trip to the DF.
+ * Bidders may advertise the most they can still pay as a property of their service
+ * (see BUDGET); a lot is then only offered to the bidders that can afford its minimum price.
+ */
+public class BidderRegistry {
+
+    // The service property advertising the funds of a bidder (its budget minus what it has spent)
+    public static final String BUDGET = "budget";
+
+    // The registered bidders, in registration order, and their advertised funds (MAX_VALUE if none)
+    private final Map<AID, Long> bidders = new LinkedHashMap<>();
+
+    // Array view of the bidders, rebuilt only after a change
+    private AID[] snapshot = new AID[0];
+    private boolean dirty = false;
+
+    // The bidders by decreasing funds, and their funds, rebuilt with the snapshot
+    private AID[] byBudget = new AID[0];
+    private long[] budgets = new long[0];
+
+    // Number of lookups served from memory
+    private long hits = 0;
+
+    // Number of DF notifications applied
+    private long refreshes = 0;
+
+    // Number of bidders left out of lots they cannot afford
+    private long filtered = 0;
+
+    // The bidders restored from a snapshot that the DF has not confirmed yet (null once it has)
+    private Set<AID> restored = null;
+
+    /**
+     * Apply a DF notification. Descriptions without services are deregistrations.
+     * The first notification lists all the registered bidders: the restored bidders it leaves out are gone.
+     */
+    public void update(DFAgentDescription[] descriptions) {
+        for (DFAgentDescription dfd : descriptions) {
+            if (restored != null) {
+                restored.remove(dfd.getName());
+            }
+            if (dfd.getAllServices().hasNext()) {
+                Long budget = budgetOf(dfd);
+                dirty |= !budget.equals(bidders.put(dfd.getName(), budget));
+            } else {
+                dirty |= bidders.remove(dfd.getName()) != null;
+            }
+        }
+        if (restored != null) {
+            for (AID gone : restored) {
+                dirty |= bidders.remove(gone) != null;
+            }
+            restored = null;
+        }
+        refreshes++;
+    }
+
+    /**
+     * Add a bidder of a snapshot, until the DF tells whether it is still there
+     */
+    public void restore(AID bidder, long budget) {
+        if (restored == null) {
+            restored = new HashSet<>();
+        }
+        restored.add(bidder);
+        bidders.put(bidder, budget);
+        dirty = true;
+    }
+
+    // The bidders and their advertised funds (MAX_VALUE if none), in registration order
+    public Map<AID, Long> getBudgets() {
+        return Collections.unmodifiableMap(bidders);
+    }
+
+    // The funds advertised by a bidder, MAX_VALUE if it does not advertise them
+    private static Long budgetOf(DFAgentDescription dfd) {
+        Iterator<?> services = dfd.getAllServices();
+        while (services.hasNext()) {
+            Iterator<?> properties = ((ServiceDescription) services.next()).getAllProperties();
+            while (properties.hasNext()) {
+                Property p = (Property) properties.next();
+                if (BUDGET.equals(p.getName())) {
+                    try {
+                        return Long.parseLong(String.valueOf(p.getValue()));
+                    } catch (NumberFormatException e) {
+                        AuctionLog.error("Bad budget " + p.getValue() + " advertised by " + dfd.getName().getName());
+                    }
+                }
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public AID[] getBidders() {
+        hits++;
+        refresh();
+        return snapshot;
+    }
+
+    /**
+     * The bidders that can afford the given price. All of them (the same array as getBidders())
+     * if none of the bidders is known to be short of funds.
+     */
+    public AID[] getBidders(long price) {
+        hits++;
+        refresh();
+        // budgets is decreasing: find the first bidder that cannot afford the price
+        int lo = 0;
+        int hi = budgets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (budgets[mid] >= price) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == snapshot.length) {
+            return snapshot;
+        }
+        filtered += snapshot.length - lo;
+        return Arrays.copyOf(byBudget, lo);
+    }
+
+    private void refresh() {
+        if (!dirty) {
+            return;
+        }
+        snapshot = bidders.keySet().toArray(new AID[0]);
+        byBudget = snapshot.clone();
+        // A stable sort: bidders with the same funds stay in registration order
+        Arrays.sort(byBudget, (a, b) -> Long.compare(bidders.get(b), bidders.get(a)));
+        budgets = new long[byBudget.length];
+        for (int i = 0; i < byBudget.length; i++) {
+            budgets[i] = bidders.get(byBudget[i]);
+        }
+        dirty = false;
+    }
+
+    public boolean isEmpty() {
+        return bidders.isEmpty();
+    }
+
+    public int size() {
+        return bidders.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getRefreshes() {
+        return refreshes;
+    }
+
+    public long getFiltered() {
+        return filtered;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bidders, %d lookups, %d DF notifications, %d CFPs saved by advertised budgets",
+                bidders.size(), hits, refreshes, filtered);
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.random.RandomGenerator;
+
+/**
+ * The built-in bidding strategies, and loading of strategies by name.
+ */
+public class BiddingStrategies {
+
+    public static final BiddingStrategy TRUTHFUL = new Truthful();
+    public static final BiddingStrategy INCREMENTAL = new Incremental();
+    public static final BiddingStrategy SNIPING = new Sniping();
+
+    /**
+     * The strategy with the given name: "truthful", "incremental", "sniping",
+     * or the class name of a BiddingStrategy with a public no-argument constructor
+     */
+    public static BiddingStrategy forName(String name) {
+        switch (name) {
+            case "truthful":
+                return TRUTHFUL;
+            case "incremental":
+                return INCREMENTAL;
+            case "sniping":
+                return SNIPING;
+            default:
+                try {
+                    return (BiddingStrategy) Class.forName(name).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Unknown bidding strategy " + name, e);
+                }
+        }
+    }
+
+    /**
+     * Bid the valuation of the lot, as far as the funds allow
+     */
+    static class Truthful implements BiddingStrategy {
+
+        public int bid(int initialPrice, int highestBid, int lastBid, int valuation, long available, RandomGenerator rn) {
+            int bid = (int) Math.min(valuation, available);
+            return bid >= initialPrice ? bid : -1;
+        }
+
+        @Override
+        public void bidBatch(int[] initialPrices, int[] highestBids, int[] valuations, int n,
+                             int lastBid, long available, RandomGenerator rn, int[] out) {
+            for (int i = 0; i < n; i++) {
+                int bid = (int) Math.min(valuations[i], available);
+                out[i] = bid >= initialPrices[i] ? bid : -1;
+            }
+        }
+    }
+
+    /**
+     * The original strategy: the initial price plus a small random number, or the highest bid
+     * received plus a small random number if that one is higher, as far as the funds allow
+     */
+    static class Incremental implements BiddingStrategy {
+
+        public int bid(int initialPrice, int highestBid, int lastBid, int valuation, long available, RandomGenerator rn) {
+            if (available < initialPrice) {
+                return -1;
+            }
+            int base = highestBid > lastBid && highestBid > initialPrice ? highestBid : initialPrice;
+            return (int) Math.min(base + rn.nextInt(100), available);
+        }
+
+        @Override
+        public void bidBatch(int[] initialPrices, int[] highestBids, int[] valuations, int n,
+                             int lastBid, long available, RandomGenerator rn, int[] out) {
+            for (int i = 0; i < n; i++) {
+                int initialPrice = initialPrices[i];
+                if (available < initialPrice) {
+                    out[i] = -1;
+                    continue;
+                }
+                int base = highestBids[i] > lastBid && highestBids[i] > initialPrice ? highestBids[i] : initialPrice;
+                out[i] = (int) Math.min(base + rn.nextInt(100), available);
+            }
+        }
+    }
+
+    /**
+     * Wait until just before the deadline, then outbid the highest bid by the minimum
+     * as long as it stays below the valuation
+     */
+    static class Sniping implements BiddingStrategy {
+
+        // How long before the deadline the bid is sent (ms)
+        private static final long MARGIN = 50;
+
+        public int bid(int initialPrice, int highestBid, int lastBid, int valuation, long available, RandomGenerator rn) {
+            int bid = Math.max(initialPrice, highestBid + 1);
+            return bid <= valuation && bid <= available ? bid : -1;
+        }
+
+        @Override
+        public long delay(long remainingMillis) {
+            return Math.max(0, remainingMillis - MARGIN);
+        }
+    }
+}
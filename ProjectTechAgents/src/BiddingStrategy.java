@@ -0,0 +1,46 @@
+import java.util.random.RandomGenerator;
+
+/**
+ * How a bidder prices its bids. Bidders load their strategy by name (see BiddingStrategies).
+ * Implementations must be stateless, so one instance can serve any number of bidders and threads.
+ */
+public interface BiddingStrategy {
+
+    /**
+     * The bid for a lot, or -1 not to bid.
+     *
+     * @param initialPrice the initial price of the lot
+     * @param highestBid   the highest bid the bidder knows of (0 if none)
+     * @param lastBid      the last bid of the bidder (0 if none)
+     * @param valuation    what the lot is worth to the bidder
+     * @param available    the funds the bidder can still reserve
+     */
+    int bid(int initialPrice, int highestBid, int lastBid, int valuation, long available, RandomGenerator rn);
+
+    /**
+     * Bid for n open lots at once, from primitive arrays and without allocating.
+     * out[i] receives the bid for lot i, or -1. It draws the same random numbers as bid() lot
+     * by lot, so a seed gives the same bids either way.
+     */
+    default void bidBatch(int[] initialPrices, int[] highestBids, int[] valuations, int n,
+                          int lastBid, long available, RandomGenerator rn, int[] out) {
+        for (int i = 0; i < n; i++) {
+            out[i] = bid(initialPrices[i], highestBids[i], lastBid, valuations[i], available, rn);
+        }
+    }
+
+    /**
+     * Whether to accept the asking price of a round of a clock auction (English or Dutch).
+     * By default, any price up to the valuation that the funds allow.
+     */
+    default boolean accept(int price, int valuation, long available) {
+        return price <= valuation && price <= available;
+    }
+
+    /**
+     * How long to wait before sending the bid, given the time left before the reply-by deadline (ms)
+     */
+    default long delay(long remainingMillis) {
+        return 0;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The items of a bundle auction, cleared together, and the bids received for them.
+ * The CFP lists the items one per line as "initialPrice name"; bids refer to them by index.
+ */
+public class Bundle {
+
+    // The ACL protocol of the CFP of a bundle
+    public static final String PROTOCOL = "bundle-auction";
+
+    private final String[] names;
+    private final int[] initialPrices;
+    private final int[] reservePrices;
+
+    // The bids received so far
+    private final List<BundleBid> bids = new ArrayList<>();
+
+    public Bundle(String[] names, int[] initialPrices, int[] reservePrices) {
+        this.names = names;
+        this.initialPrices = initialPrices;
+        this.reservePrices = reservePrices;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int item) {
+        return names[item];
+    }
+
+    public int getInitialPrice(int item) {
+        return initialPrices[item];
+    }
+
+    /**
+     * The lowest price an item can be sold for: its initial price, or its reserve price if higher
+     */
+    public int getMinimumPrice(int item) {
+        return Math.max(initialPrices[item], reservePrices[item]);
+    }
+
+    public void addBids(List<BundleBid> received) {
+        bids.addAll(received);
+    }
+
+    public List<BundleBid> getBids() {
+        return bids;
+    }
+
+    /**
+     * The names of some items of the bundle, separated by commas
+     */
+    public String describe(int[] items) {
+        StringBuilder sb = new StringBuilder();
+        for (int item : items) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(names[item]);
+        }
+        return sb.toString();
+    }
+
+    public String encodeItems() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            sb.append(initialPrices[i]).append(' ').append(names[i]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The items of a CFP, as the bidders see them (without reserve prices)
+     */
+    public static Bundle decodeItems(String content) {
+        String[] lines = content.split("\n");
+        String[] names = new String[lines.length];
+        int[] prices = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            int space = lines[i].indexOf(' ');
+            prices[i] = Integer.parseInt(lines[i].substring(0, space));
+            names[i] = lines[i].substring(space + 1);
+        }
+        return new Bundle(names, prices, new int[lines.length]);
+    }
+}
@@ -0,0 +1,88 @@
+import jade.core.AID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bid for a set of the items of a bundle auction, all or nothing.
+ * A bidder may send several of them for one bundle, of which it wins at most one (XOR bids).
+ */
+public class BundleBid {
+
+    private final AID bidder;
+
+    // The items of the bid (indexes in the items of the bundle)
+    private final int[] items;
+
+    private final int price;
+
+    public BundleBid(AID bidder, int[] items, int price) {
+        this.bidder = bidder;
+        this.items = items;
+        this.price = price;
+    }
+
+    public AID getBidder() {
+        return bidder;
+    }
+
+    public int[] getItems() {
+        return items;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    /**
+     * The content of a PROPOSE holding several bids: "price:item,item;price:item"
+     */
+    public static String encode(List<BundleBid> bids) {
+        StringBuilder sb = new StringBuilder();
+        for (BundleBid bid : bids) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(bid.price).append(':');
+            for (int i = 0; i < bid.items.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(bid.items[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The bids of a PROPOSE. Bids that refer to items out of the bundle are dropped.
+     */
+    public static List<BundleBid> decode(String content, AID bidder, int itemCount) {
+        List<BundleBid> bids = new ArrayList<>();
+        if (content == null || content.isEmpty()) {
+            return bids;
+        }
+        for (String part : content.split(";")) {
+            int colon = part.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String[] names = part.substring(colon + 1).split(",");
+            int[] items = new int[names.length];
+            boolean valid = true;
+            for (int i = 0; i < names.length && valid; i++) {
+                items[i] = Integer.parseInt(names[i].trim());
+                valid = items[i] >= 0 && items[i] < itemCount;
+            }
+            if (valid) {
+                bids.add(new BundleBid(bidder, items, Integer.parseInt(part.substring(0, colon).trim())));
+            }
+        }
+        return bids;
+    }
+
+    @Override
+    public String toString() {
+        return bidder.getLocalName() + " " + price + " for " + items.length + " items";
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the items of a catalogue file one at a time, so catalogues of any size can be
+ * imported in batches. The file is opened by the first call to next().
+ * CSV files have one item per line: name,initialPrice,reservePrice[,priority,startTime,units]
+ * (names may be quoted, a first line starting with "name" is a header).
+ * JSON files (*.json) hold an array of objects with the same fields.
+ * Malformed items (including negative prices and fewer than one unit) are skipped and counted.
+ */
+public class CatalogueImport implements Closeable {
+
+    private final Path path;
+    private final boolean json;
+
+    private BufferedReader reader;
+    private int line = 0;
+    private int imported = 0;
+    private int skipped = 0;
+
+    // The next character of a JSON file (-2 if none read yet)
+    private int peek = -2;
+
+    public CatalogueImport(Path path) {
+        this.path = path;
+        json = path.getFileName().toString().toLowerCase().endsWith(".json");
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * The next item of the file, or null at its end
+     */
+    public CatalogueItem next() throws IOException {
+        if (reader == null) {
+            reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+            if (json) {
+                line = 1;
+                expect('[');
+            }
+        }
+        while (true) {
+            Map<String, String> fields = json ? nextObject() : nextLine();
+            if (fields == null) {
+                return null;
+            }
+            try {
+                CatalogueItem item = new CatalogueItem(fields.get("name"),
+                        Integer.parseInt(fields.get("initialPrice")),
+                        Integer.parseInt(fields.get("reservePrice")),
+                        Integer.parseInt(fields.getOrDefault("priority", "0")),
+                        Long.parseLong(fields.getOrDefault("startTime", "0")),
+                        Integer.parseInt(fields.getOrDefault("units", "1")));
+                if (item.getName() == null || item.getName().isEmpty()) {
+                    throw new IllegalArgumentException("no name");
+                }
+                if (item.getInitialPrice() < 0 || item.getReservePrice() < 0) {
+                    throw new IllegalArgumentException("negative price");
+                }
+                if (item.getUnits() < 1) {
+                    throw new IllegalArgumentException("units must be at least 1");
+                }
+                imported++;
+                return item;
+            } catch (RuntimeException e) {
+                skipped++;
+                AuctionLog.error(path + ":" + line + ": item skipped (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private static final String[] COLUMNS = {"name", "initialPrice", "reservePrice", "priority", "startTime", "units"};
+
+    private Map<String, String> nextLine() throws IOException {
+        String s;
+        do {
+            s = reader.readLine();
+            line++;
+            if (s == null) {
+                return null;
+            }
+            s = s.trim();
+        } while (s.isEmpty() || s.startsWith("#") || (line == 1 && s.toLowerCase().startsWith("name")));
+
+        List<String> values = splitCsv(s);
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < values.size() && i < COLUMNS.length; i++) {
+            fields.put(COLUMNS[i], values.get(i));
+        }
+        return fields;
+    }
+
+    // Split a CSV line, a quoted value may hold commas and doubled quotes
+    static List<String> splitCsv(String s) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < s.length() && s.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    // JSON: the next object of the array as field -> text of the value, or null at the end
+    private Map<String, String> nextObject() throws IOException {
+        int c = skipSpace();
+        if (c == ',') {
+            read();
+            c = skipSpace();
+        }
+        if (c == ']' || c == -1) {
+            return null;
+        }
+        expect('{');
+        Map<String, String> fields = new HashMap<>();
+        if (skipSpace() == '}') {
+            read();
+            return fields;
+        }
+        while (true) {
+            skipSpace();
+            String key = readString();
+            expect(':');
+            skipSpace();
+            fields.put(key, peek() == '"' ? readString() : readLiteral());
+            c = skipSpace();
+            read();
+            if (c == '}') {
+                return fields;
+            }
+            if (c != ',') {
+                throw new IOException(path + ":" + line + ": expected , or } in JSON");
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        if (read() != '"') {
+            throw new IOException(path + ":" + line + ": expected a string in JSON");
+        }
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new IOException(path + ": unterminated string in JSON");
+            }
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for (int i = 0; i < 4; i++) {
+                            hex[i] = (char) read();
+                        }
+                        sb.append((char) Integer.parseInt(new String(hex), 16));
+                        break;
+                    default:
+                        sb.append((char) c);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    // A number, true, false or null
+    private String readLiteral() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = peek()) != -1 && c != ',' && c != '}' && !Character.isWhitespace(c)) {
+            sb.append((char) read());
+        }
+        return sb.toString();
+    }
+
+    private void expect(char expected) throws IOException {
+        skipSpace();
+        int c = read();
+        if (c != expected) {
+            throw new IOException(path + ":" + line + ": expected " + expected + " in JSON");
+        }
+    }
+
+    private int skipSpace() throws IOException {
+        while (peek() != -1 && Character.isWhitespace(peek())) {
+            read();
+        }
+        return peek();
+    }
+
+    private int peek() throws IOException {
+        if (peek == -2) {
+            peek = reader.read();
+        }
+        return peek;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        peek = -2;
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * An item to put in the catalogue, as imported from a file or submitted by the GUI
+ */
+public class CatalogueItem {
+
+    private final String name;
+    private final int initialPrice;
+    private final int reservePrice;
+    private final int priority;
+    private final long startTime;
+    private final int units;
+
+    public CatalogueItem(String name, int initialPrice, int reservePrice) {
+        this(name, initialPrice, reservePrice, 0, 0, 1);
+    }
+
+    public CatalogueItem(String name, int initialPrice, int reservePrice, int priority, long startTime, int units) {
+        this.name = name;
+        this.initialPrice = initialPrice;
+        this.reservePrice = reservePrice;
+        this.priority = priority;
+        this.startTime = startTime;
+        this.units = units;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getInitialPrice() {
+        return initialPrice;
+    }
+
+    public int getReservePrice() {
+        return reservePrice;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int getUnits() {
+        return units;
+    }
+}
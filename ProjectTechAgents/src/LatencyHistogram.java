@@ -0,0 +1,125 @@
+/**
+ * Histogram of latencies (or other non-negative values) with HDR-style log-linear buckets:
+ * every power of two is split into 16 sub-buckets, so recording is a single array increment
+ * and percentiles are within 1/16 of the true value. Values below 16 are exact.
+ */
+public class LatencyHistogram implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Sub-buckets per power of two (2^SUB_BITS)
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final String unit;
+
+    private final long[] buckets = new long[(64 - SUB_BITS) * SUB_COUNT];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    public LatencyHistogram(String unit) {
+        this.unit = unit;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[bucketOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    // The highest value of a bucket
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long lower = (long) (SUB_COUNT + (bucket & (SUB_COUNT - 1))) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Add the values recorded by another histogram
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The upper bound of the bucket holding the given percentile (0-100)
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d (%s)",
+                count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9), max, unit);
+    }
+
+    /**
+     * One line per non-empty power of two, with a bar proportional to its count
+     */
+    public String toHistogram() {
+        long[] powers = new long[buckets.length / SUB_COUNT];
+        for (int i = 0; i < buckets.length; i++) {
+            powers[i / SUB_COUNT] += buckets[i];
+        }
+        StringBuilder sb = new StringBuilder();
+        long top = 1;
+        for (long p : powers) {
+            top = Math.max(top, p);
+        }
+        for (int i = 0; i < powers.length; i++) {
+            if (powers[i] == 0) {
+                continue;
+            }
+            long upper = upperBound(i * SUB_COUNT + SUB_COUNT - 1);
+            int bar = (int) (powers[i] * 40 / top);
+            sb.append(String.format("%12d %s | %-40s %d%n", upper, unit, "#".repeat(Math.max(1, bar)), powers[i]));
+        }
+        return sb.toString();
+    }
+}
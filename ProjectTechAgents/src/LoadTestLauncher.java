@@ -0,0 +1,119 @@
+import jade.core.Runtime;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.wrapper.AgentContainer;
+import jade.wrapper.AgentController;
+import jade.wrapper.StaleProxyException;
+
+import java.util.*;
+
+/**
+ * Headless load test: one auctioneer without GUI, a configurable number of bidders spread over
+ * several containers, and a generated catalogue. The auctioneer prints throughput and latency
+ * percentiles and shuts the platform down once every lot is closed.
+ * With shards=N the catalogue is partitioned over N auctioneers spread over the containers,
+ * and an AuctionCoordinator merges their reports.
+ *
+ * Arguments are "key=value":
+ *   bidders=1000                 number of bidders
+ *   hosts=0                      number of BidderHost agents the bidders are spread over (0: one BidderComp agent each)
+ *   containers=1                 number of containers (the first one is the main container)
+ *   budget=uniform:1000:2000     distribution of the bidder budgets
+ *   shards=1                     number of auctioneers the catalogue is partitioned over
+ *   seed=42                      seed of the auctioneer and bidders (deterministic mode, random if 0)
+ *   advertise=0                  how often bidders advertise their funds, so they only get the CFPs they can afford (ms, 0: never)
+ * Any other argument is passed to the auctioneer, e.g.
+ *   items=10000 price=uniform:800:1500 reserve=uniform:0:200 lots=32 mode=event deadline=500
+ */
+public class LoadTestLauncher {
+
+    public static void main(String[] args) throws StaleProxyException {
+        int bidderCount = 1000;
+        int containerCount = 1;
+        String budget = "uniform:1000:2000";
+        int shardCount = 1;
+        String seed = "0";
+        int hostCount = 0;
+        String advertise = "0";
+        List<Object> auctioneerArgs = new ArrayList<>(Arrays.asList(
+                "gui=false", "exit=true", "mode=event", "lots=32", "deadline=1000", "tick=1000", "items=10000"));
+
+        for (String arg : args) {
+            if (arg.startsWith("bidders=")) {
+                bidderCount = Integer.parseInt(arg.substring("bidders=".length()));
+            } else if (arg.startsWith("advertise=")) {
+                advertise = arg.substring("advertise=".length());
+            } else if (arg.startsWith("hosts=")) {
+                hostCount = Integer.parseInt(arg.substring("hosts=".length()));
+            } else if (arg.startsWith("containers=")) {
+                containerCount = Integer.parseInt(arg.substring("containers=".length()));
+            } else if (arg.startsWith("shards=")) {
+                shardCount = Integer.parseInt(arg.substring("shards=".length()));
+            } else if (arg.startsWith("budget=")) {
+                budget = arg.substring("budget=".length());
+            } else if (arg.startsWith("seed=")) {
+                seed = arg.substring("seed=".length());
+                auctioneerArgs.add(arg);
+            } else {
+                // Later arguments override the defaults
+                auctioneerArgs.add(arg);
+            }
+        }
+        // Do not start the auction before all bidders are registered
+        auctioneerArgs.add("minBidders=" + (hostCount > 0 ? hostCount : bidderCount));
+
+        System.setProperty("java.awt.headless", "true");
+        Runtime rt = Runtime.instance();
+        // Exit the JVM once the auctioneer has shut the platform down
+        rt.setCloseVM(true);
+
+        Profile mainProfile = new ProfileImpl();
+        mainProfile.setParameter(Profile.GUI, "false");
+        AgentContainer[] containers = new AgentContainer[containerCount];
+        containers[0] = rt.createMainContainer(mainProfile);
+        for (int i = 1; i < containerCount; i++) {
+            Profile p = new ProfileImpl(false);
+            p.setParameter(Profile.MAIN_HOST, "localhost");
+            p.setParameter(Profile.CONTAINER_NAME, "bidders-" + i);
+            containers[i] = rt.createAgentContainer(p);
+        }
+
+        long start = System.currentTimeMillis();
+        if (hostCount > 0) {
+            // Many logical bidders per agent
+            for (int i = 1; i <= hostCount; i++) {
+                int hosted = bidderCount / hostCount + (i <= bidderCount % hostCount ? 1 : 0);
+                AgentContainer container = containers[i % containerCount];
+                AgentController host = container.createNewAgent("host" + i, "BidderHost",
+                        new Object[] { "bidders=" + hosted, "budget=" + budget, "seed=" + seed });
+                host.start();
+            }
+        } else {
+            for (int i = 1; i <= bidderCount; i++) {
+                AgentContainer container = containers[i % containerCount];
+                AgentController bidder = container.createNewAgent("bidder" + i, "BidderComp", new Object[] { "budget=" + budget, "seed=" + seed, "advertise=" + advertise });
+                bidder.start();
+            }
+        }
+        System.out.println("Started " + bidderCount + " bidders in " + containerCount + " containers in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        if (shardCount == 1) {
+            AgentController auctioneer = containers[0].createNewAgent("auctioneer", "Auctioneer", auctioneerArgs.toArray());
+            auctioneer.start();
+            return;
+        }
+
+        AgentController coordinator = containers[0].createNewAgent("coordinator", "AuctionCoordinator",
+                new Object[] { "shards=" + shardCount, "exit=true" });
+        coordinator.start();
+        for (int i = 0; i < shardCount; i++) {
+            List<Object> shardArgs = new ArrayList<>(auctioneerArgs);
+            shardArgs.add("shard=" + i);
+            shardArgs.add("shards=" + shardCount);
+            shardArgs.add("coordinator=coordinator");
+            AgentController shard = containers[i % containerCount].createNewAgent(AuctionCoordinator.shardName(i), "Auctioneer", shardArgs.toArray());
+            shard.start();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+import jade.core.AID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State of a single lot on auction.
+ * Each lot has its own conversation id, so any number of lots can be open at once
+ * and the replies of the bidders are routed to the right one.
+ */
+public class Lot {
+
+    private final String conversationId;
+    private final String itemName;
+    private final int initialPrice;
+    private final int reservePrice;
+
+    // The bidders the CFP was sent to
+    private final AID[] bidders;
+
+    // The reply-with value of the CFP, bids must refer to it
+    private String replyWith;
+
+    // The counter of replies from bidders
+    private int repliesCnt = 0;
+
+    // The number of bids received, over all rounds
+    private int bids = 0;
+
+    // The bidder who provides the best offer and its price
+    private AID bestBidder;
+    private int bestPrice;
+
+    // When the CFP was sent (System.nanoTime)
+    private long openedAt;
+
+    // The reply-by deadline of the CFP (ms since epoch)
+    private long replyBy;
+
+    // Set once the winner is announced, late replies are ignored from then on
+    private boolean closed = false;
+
+    // The format of the auction, and for clock auctions the asking price of the current round
+    private AuctionFormat format = AuctionFormat.SEALED;
+    private int price;
+    private int round = 1;
+
+    // The bidders polled in the current round of a clock auction (null for sealed bids),
+    // and those that accepted its price
+    private AID[] active;
+    private List<AID> accepted;
+
+    // The number of identical units for sale, and the highest bids for them
+    // (null if only the best bid is kept)
+    private int units = 1;
+    private TopBids topBids;
+
+    // The items and bids of a bundle auction (null for a single item)
+    private Bundle bundle;
+
+    // The turns of the lot in the LotScheduler: its priority (higher first), its share of the
+    // agent among the lots of the same priority, and the finish tag of its last step
+    private int priority = 0;
+    private int weight = 1;
+    private long finishTag = 0;
+
+    public Lot(String conversationId, String itemName, int initialPrice, int reservePrice, AID[] bidders) {
+        this.conversationId = conversationId;
+        this.itemName = itemName;
+        this.initialPrice = initialPrice;
+        this.reservePrice = reservePrice;
+        this.bidders = bidders;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public int getInitialPrice() {
+        return initialPrice;
+    }
+
+    public int getReservePrice() {
+        return reservePrice;
+    }
+
+    public AID[] getBidders() {
+        return bidders;
+    }
+
+    public String getReplyWith() {
+        return replyWith;
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    public long getReplyBy() {
+        return replyBy;
+    }
+
+    /**
+     * The CFP of a round is sent. The close latency of the lot is measured from its first round.
+     */
+    public void opened(String replyWith, long now, long replyBy) {
+        this.replyWith = replyWith;
+        if (round == 1) {
+            this.openedAt = now;
+        }
+        this.replyBy = replyBy;
+    }
+
+    /**
+     * Run this lot as a clock auction, starting at the given price
+     */
+    public void startClock(AuctionFormat format, int price) {
+        this.format = format;
+        this.price = price;
+        active = bidders;
+        accepted = new ArrayList<>();
+    }
+
+    /**
+     * Start the next round of a clock auction: poll the given bidders at the given price
+     */
+    public void nextRound(AID[] active, int price) {
+        this.active = active;
+        this.price = price;
+        accepted.clear();
+        repliesCnt = 0;
+        round++;
+    }
+
+    /**
+     * A bidder accepts the asking price of the current round.
+     * Returns true if it is the first one to, which makes it the best offer.
+     */
+    public boolean accept(AID bidder) {
+        accepted.add(bidder);
+        return offer(bidder, price);
+    }
+
+    public AuctionFormat getFormat() {
+        return format;
+    }
+
+    public boolean isClock() {
+        return format.isClock();
+    }
+
+    /**
+     * The asking price of the current round (the initial price for sealed bids)
+     */
+    public int getPrice() {
+        return format.isClock() ? price : initialPrice;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * The bidders polled in the current round
+     */
+    public AID[] getActiveBidders() {
+        return active != null ? active : bidders;
+    }
+
+    public List<AID> getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Record a bid. Returns true if it is the best offer at present.
+     */
+    public boolean offer(AID bidder, int price) {
+        repliesCnt++;
+        if (topBids != null) {
+            topBids.offer(bidder, price);
+        }
+        if (bestBidder == null || price > bestPrice) {
+            bestPrice = price;
+            bestBidder = bidder;
+            return true;
+        }
+        return false;
+    }
+
+    public void refuse() {
+        repliesCnt++;
+    }
+
+    // A reply that is neither a single offer nor a refusal, e.g. the bids for a bundle
+    public void replied() {
+        repliesCnt++;
+    }
+
+    /**
+     * Keep the given number of highest bids, to sell several units or to price at the highest losing bid
+     */
+    public void trackTopBids(int units, int capacity) {
+        this.units = units;
+        topBids = new TopBids(capacity);
+    }
+
+    public int getUnits() {
+        return units;
+    }
+
+    public TopBids getTopBids() {
+        return topBids;
+    }
+
+    /**
+     * The lowest price the item can be sold for
+     */
+    public int getMinimumPrice() {
+        return Math.max(initialPrice, reservePrice);
+    }
+
+    public void setSchedule(int priority, int weight) {
+        this.priority = priority;
+        this.weight = Math.max(1, weight);
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    long getFinishTag() {
+        return finishTag;
+    }
+
+    void setFinishTag(long finishTag) {
+        this.finishTag = finishTag;
+    }
+
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    public void setBundle(Bundle bundle) {
+        this.bundle = bundle;
+    }
+
+    /**
+     * Count a bid. Returns the number of bids so far.
+     */
+    public int bidReceived() {
+        return ++bids;
+    }
+
+    public int getBids() {
+        return bids;
+    }
+
+    public int getRepliesCnt() {
+        return repliesCnt;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void markClosed() {
+        closed = true;
+    }
+
+    public boolean allRepliesReceived() {
+        return repliesCnt >= getActiveBidders().length;
+    }
+
+    public AID getBestBidder() {
+        return bestBidder;
+    }
+
+    public int getBestPrice() {
+        return bestPrice;
+    }
+
+    /**
+     * Whether the best offer is enough to sell the item
+     */
+    public boolean hasWinner() {
+        return bestBidder != null && bestPrice >= initialPrice && bestPrice >= reservePrice;
+    }
+}
@@ -0,0 +1,543 @@
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * The catalogue of items for sale.
+ * Items live in parallel primitive arrays indexed by slot, so prices are never boxed and
+ * millions of items stay compact. The items waiting for auction are kept in a binary heap
+ * in catalogue order (FIFO, priority or scheduled start), so the next lot is found in O(log n).
+ * Secondary indexes group the items by bands of initial price and of reserve price.
+ * Not thread-safe: it is only used from the auctioneer's thread.
+ */
+public class LotCatalogue {
+
+    public enum Order { FIFO, PRIORITY, SCHEDULED }
+
+    private final Order order;
+
+    // The width of the price and reserve bands of the secondary indexes
+    private final int bandWidth;
+
+    // Item columns, indexed by slot
+    private String[] names;
+    private int[] initialPrices;
+    private int[] reservePrices;
+    private int[] priorities;
+    private long[] startTimes;
+    private long[] sequence;
+
+    // The number of identical units of every item still for sale
+    private int[] units;
+
+    // Position of the slot in the heap, -1 while the item is on auction
+    private int[] heapIndex;
+
+    // Position of the slot in its price band and reserve band
+    private int[] priceBandIndex;
+    private int[] reserveBandIndex;
+
+    private int size = 0;
+    private int usedSlots = 0;
+    private final IntList freeSlots = new IntList();
+    private long nextSequence = 0;
+
+    // Open addressing table from name to slot + 1 (0 is empty, -1 is a deleted entry)
+    private int[] table = new int[16];
+    private int tableUsed = 0;
+
+    // The slots waiting for auction
+    private int[] heap;
+    private int heapSize = 0;
+
+    // Secondary indexes (maps a band to its slots)
+    private final Map<Integer, IntList> priceBands = new HashMap<>();
+    private final Map<Integer, IntList> reserveBands = new HashMap<>();
+
+    public LotCatalogue(Order order, int bandWidth) {
+        if (bandWidth < 1) {
+            throw new IllegalArgumentException("Band width must be at least 1, not " + bandWidth);
+        }
+        this.order = order;
+        this.bandWidth = bandWidth;
+        grow(16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The number of items waiting for auction
+     */
+    public int waitingCount() {
+        return heapSize;
+    }
+
+    /**
+     * Add an item, or update its prices if it is already in the catalogue
+     */
+    public void add(String name, int initialPrice, int reservePrice, int priority, long startTime) {
+        add(name, initialPrice, reservePrice, priority, startTime, 1);
+    }
+
+    /**
+     * Add an item of which several identical units are for sale
+     */
+    public void add(String name, int initialPrice, int reservePrice, int priority, long startTime, int units) {
+        int slot = indexOf(name);
+        if (slot >= 0) {
+            unindex(slot);
+            setColumns(slot, name, initialPrice, reservePrice, priority, startTime);
+            this.units[slot] = units;
+            index(slot);
+            if (heapIndex[slot] >= 0) {
+                int i = heapIndex[slot];
+                siftUp(i);
+                siftDown(heapIndex[slot]);
+            }
+            return;
+        }
+
+        slot = freeSlots.size > 0 ? freeSlots.removeLast() : usedSlots++;
+        if (slot >= names.length) {
+            grow(names.length * 2);
+        }
+        // Insert in the table first, a rehash must not see the new slot yet
+        tableInsert(name, slot);
+        setColumns(slot, name, initialPrice, reservePrice, priority, startTime);
+        this.units[slot] = units;
+        sequence[slot] = nextSequence++;
+        index(slot);
+        heapInsert(slot);
+        size++;
+    }
+
+    /**
+     * Put an item of a snapshot back with its place in the queue. The waiting items are restored
+     * in the order of forEachWaiting(), so each one lands at the bottom of the heap without sifting.
+     */
+    public void restore(String name, int initialPrice, int reservePrice, int priority, long startTime, int units, long sequence) {
+        add(name, initialPrice, reservePrice, priority, startTime, units);
+        int slot = indexOf(name);
+        this.sequence[slot] = sequence;
+        nextSequence = Math.max(nextSequence, sequence + 1);
+        if (heapIndex[slot] >= 0) {
+            siftUp(heapIndex[slot]);
+            siftDown(heapIndex[slot]);
+        }
+    }
+
+    /**
+     * Make room for this many more items, e.g. before a bulk restore
+     */
+    public void ensureCapacity(int more) {
+        int needed = usedSlots + more;
+        if (needed > names.length) {
+            grow(Math.max(needed, names.length * 2));
+        }
+        // Rehash once now rather than at every doubling of the table
+        if (needed * 4L > table.length && needed < (1 << 28)) {
+            rebuildTable(Integer.highestOneBit(needed * 4 - 1) << 1);
+        }
+    }
+
+    /**
+     * Remove an item. Returns its slot, or -1 if it is not in the catalogue.
+     */
+    public int remove(String name) {
+        int slot = indexOf(name);
+        if (slot < 0) {
+            return -1;
+        }
+        if (heapIndex[slot] >= 0) {
+            heapRemove(heapIndex[slot]);
+        }
+        unindex(slot);
+        tableDelete(name);
+        names[slot] = null;
+        freeSlots.add(slot);
+        size--;
+        return slot;
+    }
+
+    /**
+     * Take the next item to put on auction out of the waiting heap.
+     * Returns its slot, or -1 if no item is waiting or (for scheduled order) none may start yet.
+     */
+    public int pollNext(long now) {
+        if (heapSize == 0) {
+            return -1;
+        }
+        int slot = heap[0];
+        if (order == Order.SCHEDULED && startTimes[slot] > now) {
+            return -1;
+        }
+        heapRemove(0);
+        return slot;
+    }
+
+    /**
+     * The name of the next item to put on auction, or null
+     */
+    public String peekNextName() {
+        return heapSize == 0 ? null : names[heap[0]];
+    }
+
+    /**
+     * Put an item that was not sold back in the waiting heap, behind the items already waiting
+     */
+    public void requeue(String name) {
+        int slot = indexOf(name);
+        if (slot >= 0 && heapIndex[slot] < 0) {
+            sequence[slot] = nextSequence++;
+            heapInsert(slot);
+        }
+    }
+
+    public int indexOf(String name) {
+        int mask = table.length - 1;
+        for (int i = hash(name) & mask; ; i = (i + 1) & mask) {
+            int v = table[i];
+            if (v == 0) {
+                return -1;
+            }
+            if (v > 0 && names[v - 1].equals(name)) {
+                return v - 1;
+            }
+        }
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    public int getInitialPrice(int slot) {
+        return initialPrices[slot];
+    }
+
+    public int getReservePrice(int slot) {
+        return reservePrices[slot];
+    }
+
+    public int getPriority(int slot) {
+        return priorities[slot];
+    }
+
+    public int getUnits(int slot) {
+        return units[slot];
+    }
+
+    /**
+     * Some units of an item are sold, the others stay for sale
+     */
+    public void setUnits(int slot, int units) {
+        this.units[slot] = units;
+    }
+
+    public long getStartTime(int slot) {
+        return startTimes[slot];
+    }
+
+    // The place of the item in the queue of its order (lower first for equal priorities or start times)
+    public long getSequence(int slot) {
+        return sequence[slot];
+    }
+
+    /**
+     * Whether the item is waiting for auction (false while it is on auction)
+     */
+    public boolean isWaiting(int slot) {
+        return heapIndex[slot] >= 0;
+    }
+
+    /**
+     * Call the consumer with the slot of every item whose initial price is in [min, max]
+     */
+    public void forEachInPriceRange(int min, int max, IntConsumer consumer) {
+        forEachInRange(priceBands, initialPrices, min, max, consumer);
+    }
+
+    /**
+     * Call the consumer with the slot of every item whose reserve price is in [min, max]
+     */
+    public void forEachInReserveRange(int min, int max, IntConsumer consumer) {
+        forEachInRange(reserveBands, reservePrices, min, max, consumer);
+    }
+
+    /**
+     * Call the consumer with the slot of every item, in no particular order
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int slot = 0; slot < usedSlots; slot++) {
+            if (names[slot] != null) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    /**
+     * Call the consumer with the slot of every item waiting for auction, in heap order
+     */
+    public void forEachWaiting(IntConsumer consumer) {
+        for (int i = 0; i < heapSize; i++) {
+            consumer.accept(heap[i]);
+        }
+    }
+
+    // Looks up the bands of the range one by one, or goes through the bands that exist if there are fewer of them
+    private void forEachInRange(Map<Integer, IntList> bands, int[] prices, int min, int max, IntConsumer consumer) {
+        int first = band(min);
+        int last = band(max);
+        if (first > last) {
+            return;
+        }
+        if ((long) last - first + 1 > bands.size()) {
+            for (Map.Entry<Integer, IntList> band : bands.entrySet()) {
+                if (band.getKey() >= first && band.getKey() <= last) {
+                    forEachInBand(band.getValue(), prices, min, max, consumer);
+                }
+            }
+            return;
+        }
+        // A long, so the band after the last one cannot overflow
+        for (long band = first; band <= last; band++) {
+            IntList slots = bands.get((int) band);
+            if (slots != null) {
+                forEachInBand(slots, prices, min, max, consumer);
+            }
+        }
+    }
+
+    private static void forEachInBand(IntList slots, int[] prices, int min, int max, IntConsumer consumer) {
+        for (int i = 0; i < slots.size; i++) {
+            int slot = slots.items[i];
+            if (prices[slot] >= min && prices[slot] <= max) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    private void setColumns(int slot, String name, int initialPrice, int reservePrice, int priority, long startTime) {
+        names[slot] = name;
+        initialPrices[slot] = initialPrice;
+        reservePrices[slot] = reservePrice;
+        priorities[slot] = priority;
+        startTimes[slot] = startTime;
+    }
+
+    private void grow(int capacity) {
+        int old = names == null ? 0 : names.length;
+        names = names == null ? new String[capacity] : Arrays.copyOf(names, capacity);
+        initialPrices = copy(initialPrices, capacity);
+        reservePrices = copy(reservePrices, capacity);
+        priorities = copy(priorities, capacity);
+        units = copy(units, capacity);
+        startTimes = startTimes == null ? new long[capacity] : Arrays.copyOf(startTimes, capacity);
+        sequence = sequence == null ? new long[capacity] : Arrays.copyOf(sequence, capacity);
+        heapIndex = copy(heapIndex, capacity);
+        Arrays.fill(heapIndex, old, capacity, -1);
+        priceBandIndex = copy(priceBandIndex, capacity);
+        reserveBandIndex = copy(reserveBandIndex, capacity);
+        heap = copy(heap, capacity);
+    }
+
+    private static int[] copy(int[] a, int capacity) {
+        return a == null ? new int[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    private int band(int price) {
+        return Math.floorDiv(price, bandWidth);
+    }
+
+    // Secondary indexes
+
+    private void index(int slot) {
+        priceBandIndex[slot] = priceBands.computeIfAbsent(band(initialPrices[slot]), b -> new IntList()).add(slot);
+        reserveBandIndex[slot] = reserveBands.computeIfAbsent(band(reservePrices[slot]), b -> new IntList()).add(slot);
+    }
+
+    private void unindex(int slot) {
+        unindex(priceBands, band(initialPrices[slot]), priceBandIndex, slot);
+        unindex(reserveBands, band(reservePrices[slot]), reserveBandIndex, slot);
+    }
+
+    private static void unindex(Map<Integer, IntList> bands, int band, int[] positions, int slot) {
+        IntList slots = bands.get(band);
+        int moved = slots.removeAt(positions[slot]);
+        if (moved >= 0) {
+            positions[moved] = positions[slot];
+        }
+        if (slots.size == 0) {
+            bands.remove(band);
+        }
+    }
+
+    // Name table
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private void tableInsert(String name, int slot) {
+        if ((tableUsed + 1) * 2 > table.length) {
+            rehash();
+        }
+        int mask = table.length - 1;
+        int i = hash(name) & mask;
+        while (table[i] > 0) {
+            i = (i + 1) & mask;
+        }
+        if (table[i] == 0) {
+            tableUsed++;
+        }
+        table[i] = slot + 1;
+    }
+
+    private void tableDelete(String name) {
+        int mask = table.length - 1;
+        for (int i = hash(name) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] > 0 && names[table[i] - 1].equals(name)) {
+                table[i] = -1;
+                return;
+            }
+        }
+    }
+
+    // Rebuild the table without deleted entries, doubling it if it is more than a quarter full
+    private void rehash() {
+        int length = table.length;
+        if (size * 4 >= length) {
+            length *= 2;
+        }
+        rebuildTable(length);
+    }
+
+    private void rebuildTable(int length) {
+        table = new int[length];
+        tableUsed = 0;
+        int mask = length - 1;
+        for (int slot = 0; slot < usedSlots; slot++) {
+            if (names[slot] != null) {
+                int i = hash(names[slot]) & mask;
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = slot + 1;
+                tableUsed++;
+            }
+        }
+    }
+
+    // Waiting heap
+
+    private boolean before(int a, int b) {
+        switch (order) {
+            case PRIORITY:
+                if (priorities[a] != priorities[b]) {
+                    return priorities[a] > priorities[b];
+                }
+                break;
+            case SCHEDULED:
+                if (startTimes[a] != startTimes[b]) {
+                    return startTimes[a] < startTimes[b];
+                }
+                break;
+            default:
+        }
+        return sequence[a] < sequence[b];
+    }
+
+    private void heapInsert(int slot) {
+        heap[heapSize] = slot;
+        heapIndex[slot] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    private void heapRemove(int i) {
+        int slot = heap[i];
+        heapIndex[slot] = -1;
+        int last = heap[--heapSize];
+        if (i < heapSize) {
+            heap[i] = last;
+            heapIndex[last] = i;
+            siftUp(i);
+            siftDown(heapIndex[last]);
+        }
+    }
+
+    private void siftUp(int i) {
+        int slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(slot, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    private void siftDown(int i) {
+        int slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], slot)) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    /**
+     * Growable list of ints with swap-remove
+     */
+    static class IntList {
+        int[] items = new int[4];
+        int size = 0;
+
+        // Returns the position of the new item
+        int add(int v) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = v;
+            return size++;
+        }
+
+        int removeLast() {
+            return items[--size];
+        }
+
+        // Remove the item at pos by moving the last one there. Returns the moved item, or -1.
+        int removeAt(int pos) {
+            int last = items[--size];
+            if (pos == size) {
+                return -1;
+            }
+            items[pos] = last;
+            return last;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Told about the lots of an auctioneer as they open and close, and about the size of its catalogue.
+ * Called on the agent thread, so implementations must return quickly; a GUI hands the event
+ * over to the event dispatch thread.
+ */
+public interface LotListener {
+
+    void lotOpened(String conversationId, String itemName, int price, int bidders);
+
+    void lotClosed(String conversationId, String itemName, String result);
+
+    void catalogueChanged(int size, int openLots, int lotsClosed);
+}
@@ -0,0 +1,165 @@
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Runs the steps of the open lots (CFPs, bid deadlines, awards) from a single behaviour, instead of
+ * a behaviour per step in the round robin of the agent. The lots with the highest priority go first;
+ * the lots of the same priority share the agent by weighted fair queuing, so a lot of weight w gets
+ * w times the turns of a lot of weight 1 when they compete and the close of a high-value lot never
+ * waits behind a long queue of CFPs. At most quantum steps run per action, so the messages and the
+ * catalogue imports get their turn in between.
+ * When no step is ready the behaviour blocks until the next deadline or the next submit().
+ * A lot has at most one timer (its current deadline), dropped by cancel() when the lot closes.
+ * Replaced and cancelled timers stay in the queue and are skipped when their time comes, since
+ * removing them would cost a linear search on every deadline reset and every close.
+ */
+public class LotScheduler extends CyclicBehaviour {
+
+    // The virtual time a step of a lot of weight 1 takes
+    private static final long STRIDE = 1 << 20;
+
+    private final AuctionClock clock;
+    private final int quantum;
+
+    // The steps ready to run, and the steps waiting for their time
+    private final PriorityQueue<Step> ready = new PriorityQueue<>(LotScheduler::byTurn);
+    private final PriorityQueue<Step> timers = new PriorityQueue<>(LotScheduler::byTime);
+
+    // The timer of every lot that has one: the entries of timers that are not in it are stale
+    private final Map<Lot, Step> timerOf = new HashMap<>();
+
+    // The finish tag of the last step run
+    private long virtualTime = 0;
+    private long seq = 0;
+
+    private long steps = 0;
+    private int maxReady = 0;
+
+    public LotScheduler(Agent agent, AuctionClock clock, int quantum) {
+        super(agent);
+        this.clock = clock;
+        this.quantum = quantum;
+    }
+
+    /**
+     * Run a step of a lot as soon as it is its turn
+     */
+    public void submit(Lot lot, Runnable step) {
+        long start = Math.max(virtualTime, lot.getFinishTag());
+        lot.setFinishTag(start + STRIDE / lot.getWeight());
+        ready.add(new Step(lot, step, lot.getFinishTag(), seq++));
+        maxReady = Math.max(maxReady, ready.size());
+        restart();
+    }
+
+    /**
+     * Run a step of a lot once the clock reaches the given time (ms), instead of its previous timer
+     */
+    public void at(Lot lot, long time, Runnable step) {
+        Step timer = new Step(lot, step, time, seq++);
+        timerOf.put(lot, timer);
+        timers.add(timer);
+        purge();
+        restart();
+    }
+
+    /**
+     * Drop the timer of a lot, e.g. once it is closed before its deadline
+     */
+    public void cancel(Lot lot) {
+        timerOf.remove(lot);
+    }
+
+    // Drop the stale timers once they outnumber the live ones, so the queue stays in proportion to the open lots
+    private void purge() {
+        if (timers.size() > 2 * timerOf.size() + 64) {
+            timers.removeIf(timer -> timerOf.get(timer.lot) != timer);
+        }
+    }
+
+    public void action() {
+        long now = clock.millis();
+        while (!timers.isEmpty() && timers.peek().tag <= now) {
+            Step timer = timers.poll();
+            if (timerOf.get(timer.lot) == timer) {
+                timerOf.remove(timer.lot);
+                submit(timer.lot, timer.step);
+            }
+        }
+
+        for (int i = 0; i < quantum && !ready.isEmpty(); i++) {
+            Step next = ready.poll();
+            virtualTime = Math.max(virtualTime, next.tag);
+            next.step.run();
+            steps++;
+        }
+
+        // Yield to the other behaviours and come back in the next round
+        if (!ready.isEmpty()) {
+            return;
+        }
+        // Do not wake up for a stale timer
+        while (!timers.isEmpty() && timerOf.get(timers.peek().lot) != timers.peek()) {
+            timers.poll();
+        }
+        if (timers.isEmpty()) {
+            block();
+        } else {
+            block(Math.max(1, timers.peek().tag - clock.millis()));
+        }
+    }
+
+    // Higher priority first, then the earliest finish tag, then submission order
+    private static int byTurn(Step a, Step b) {
+        int c = Integer.compare(b.lot.getPriority(), a.lot.getPriority());
+        if (c == 0) {
+            c = Long.compare(a.tag, b.tag);
+        }
+        return c != 0 ? c : Long.compare(a.seq, b.seq);
+    }
+
+    private static int byTime(Step a, Step b) {
+        int c = Long.compare(a.tag, b.tag);
+        return c != 0 ? c : Long.compare(a.seq, b.seq);
+    }
+
+    public int getReady() {
+        return ready.size();
+    }
+
+    // The live timers
+    public int getTimers() {
+        return timerOf.size();
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public String toString() {
+        return steps + " steps run, " + ready.size() + " ready (at most " + maxReady + "), " + timerOf.size() + " timers";
+    }
+
+    /**
+     * A step of a lot, with its finish tag (ready) or its time (timer)
+     */
+    private static class Step {
+
+        final Lot lot;
+        final Runnable step;
+        final long tag;
+        final long seq;
+
+        Step(Lot lot, Runnable step, long tag, long seq) {
+            this.lot = lot;
+            this.step = step;
+            this.tag = tag;
+            this.seq = seq;
+        }
+    }
+}
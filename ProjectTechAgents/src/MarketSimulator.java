@@ -0,0 +1,253 @@
+import jade.core.AID;
+
+import java.util.*;
+import java.util.random.RandomGenerator;
+
+/**
+ * Offline, deterministic replay of a sealed-bid market: the catalogue, lots and engine of the
+ * auctioneer and the strategies and ledgers of the bidders, without a platform or messages.
+ * Time is a VirtualClock that jumps from one lot event to the next, so a million lots take
+ * seconds instead of days, and the same arguments give the same result, down to the checksum
+ * of the awards. Use it to plan capacity and to bisect regressions of the auction logic.
+ *
+ * Arguments are "key=value":
+ *   bidders=100                  number of bidders
+ *   budget=uniform:10000000:20000000  distribution of the bidder budgets (enough for the whole catalogue)
+ *   strategy=incremental         bidding strategy of the bidders, see BiddingStrategies
+ *   latency=uniform:1:20         distribution of the time from CFP to reply (ms)
+ * Any other argument is an auctioneer setting, e.g.
+ *   items=1000000 lots=32 deadline=1000 price=uniform:800:1500 reserve=uniform:0:200 seed=42
+ */
+public class MarketSimulator {
+
+    private final AuctionConfig config;
+    private final VirtualClock clock = new VirtualClock();
+    private final AuctionEngine engine;
+    private final LotCatalogue catalogue;
+
+    // The bidders still in the market, in a stable order (a bidder leaves once its budget is spent)
+    private final Map<AID, BidderComp> bidderOf = new HashMap<>();
+    private final List<AID> active = new ArrayList<>();
+    private AID[] aids;
+
+    private final PriceDistribution latency;
+    private final SplittableRandom rn;
+
+    // The open lots by the time they close, in opening order for equal times
+    private final PriorityQueue<Pending> closing = new PriorityQueue<>();
+    private long openSeq = 0;
+
+    private long revenue = 0;
+    private long checksum = 17;
+
+    public MarketSimulator(AuctionConfig config, int bidderCount, PriceDistribution budget,
+                           BiddingStrategy strategy, PriceDistribution latency) {
+        if (config.format != AuctionFormat.SEALED || config.bundleSize > 0 || !config.pricing.equals("first")) {
+            throw new IllegalArgumentException("The simulator replays sealed-bid, first-price lots of single items");
+        }
+        this.config = config;
+        this.latency = latency;
+        config.clock = clock;
+        engine = new AuctionEngine(config);
+        catalogue = new LotCatalogue(config.order, config.bandWidth);
+        rn = new SplittableRandom(AuctionConfig.seedOf(config.seed, "market"));
+
+        RandomGenerator budgets = new SplittableRandom(AuctionConfig.seedOf(config.seed, "budgets"));
+        for (int i = 1; i <= bidderCount; i++) {
+            String name = "bidder" + i;
+            AID aid = new AID(name + "@simulator", AID.ISGUID);
+            bidderOf.put(aid, new BidderComp(budget.sample(budgets), strategy, AuctionConfig.seedOf(config.seed, name)));
+            active.add(aid);
+        }
+        aids = active.toArray(new AID[0]);
+
+        // The same items as the auctioneer generates with this seed
+        RandomGenerator items = new SplittableRandom(AuctionConfig.seedOf(config.seed, "catalogue"));
+        for (int i = 1; i <= config.items; i++) {
+            int price = config.priceDistribution.sample(items);
+            int reservePrice = price + config.reserveDistribution.sample(items);
+            config.unitsDistribution.sample(items);
+            catalogue.add("Lot " + i, price, reservePrice, 0, 0);
+        }
+    }
+
+    /**
+     * Run until the catalogue is sold out (or no bidder is left)
+     */
+    public void run() {
+        startLots();
+        Pending next;
+        while ((next = closing.poll()) != null) {
+            clock.advanceTo(next.closeAt);
+            close(next);
+            startLots();
+        }
+    }
+
+    private void startLots() {
+        if (aids.length < config.minBidders) {
+            return;
+        }
+        while (engine.hasFreeSlot()) {
+            int slot = catalogue.pollNext(clock.millis());
+            if (slot < 0) {
+                return;
+            }
+            open(engine.open(catalogue.getName(slot), catalogue.getInitialPrice(slot), catalogue.getReservePrice(slot), aids));
+        }
+    }
+
+    // Send the CFP and collect the replies that arrive before the deadline
+    private void open(Lot lot) {
+        long now = clock.nanos();
+        long replyBy = clock.millis() + config.bidDeadline;
+        lot.opened("cfp-" + lot.getConversationId() + "-1", now, replyBy);
+        engine.messageSent(aids.length);
+
+        long deadline = now + config.bidDeadline * 1000000;
+        long lastReply = now;
+        boolean allReplied = true;
+        for (AID aid : aids) {
+            BidderComp bidder = bidderOf.get(aid);
+            long delay = latency.sample(rn);
+            int price = bidder.bidFor(lot.getInitialPrice());
+            boolean bids = price >= 0 && bidder.getLedger().reserve(lot.getConversationId(), price);
+            if (bids) {
+                delay += bidder.getStrategy().delay(config.bidDeadline - delay);
+            }
+            long arrival = now + delay * 1000000;
+            if (arrival > deadline) {
+                // Too late, the lot is closed by then
+                engine.lateReplyReceived();
+                allReplied = false;
+                continue;
+            }
+            engine.messageReceived();
+            lastReply = Math.max(lastReply, arrival);
+            if (bids) {
+                lot.bidReceived();
+                engine.bidReceived();
+                lot.offer(aid, price);
+            } else {
+                lot.refuse();
+            }
+        }
+        closing.add(new Pending(lot, allReplied ? lastReply : deadline, openSeq++));
+    }
+
+    // Award the lot, release the funds of the losers and put the item back if it is unsold
+    private void close(Pending pending) {
+        Lot lot = pending.lot;
+        lot.markClosed();
+        String itemName = lot.getItemName();
+        boolean sold = lot.hasWinner();
+        BidderComp winner = null;
+        if (sold) {
+            winner = bidderOf.get(lot.getBestBidder());
+            winner.getLedger().commit(lot.getConversationId(), lot.getBestPrice());
+            catalogue.remove(itemName);
+            revenue += lot.getBestPrice();
+            checksum = checksum * 31 + itemName.hashCode();
+            checksum = checksum * 31 + lot.getBestBidder().getName().hashCode();
+            checksum = checksum * 31 + lot.getBestPrice();
+            engine.messageSent(1);
+        }
+        for (AID aid : lot.getBidders()) {
+            BidderComp bidder = bidderOf.get(aid);
+            if (bidder != winner) {
+                bidder.getLedger().release(lot.getConversationId());
+            }
+        }
+        engine.messageSent(lot.getBidders().length - (sold ? 1 : 0));
+
+        if (engine.close(lot, sold)) {
+            catalogue.remove(itemName);
+        } else if (catalogue.contains(itemName)) {
+            catalogue.requeue(itemName);
+        }
+
+        // A bidder with no funds left deregisters
+        if (winner != null && winner.getLedger().getAvailable() <= 0 && winner.getLedger().getOpenReservations() == 0) {
+            active.remove(lot.getBestBidder());
+            aids = active.toArray(new AID[0]);
+        }
+    }
+
+    public AuctionEngine getEngine() {
+        return engine;
+    }
+
+    public long getRevenue() {
+        return revenue;
+    }
+
+    // Changes with any award (item, winner or price), so two runs can be compared at a glance
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public long getVirtualMillis() {
+        return clock.millis();
+    }
+
+    /**
+     * A lot waiting for its close
+     */
+    private static class Pending implements Comparable<Pending> {
+
+        final Lot lot;
+        final long closeAt;
+        final long seq;
+
+        Pending(Lot lot, long closeAt, long seq) {
+            this.lot = lot;
+            this.closeAt = closeAt;
+            this.seq = seq;
+        }
+
+        public int compareTo(Pending other) {
+            int c = Long.compare(closeAt, other.closeAt);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+    }
+
+    public static void main(String[] args) {
+        int bidderCount = 100;
+        String budget = "uniform:10000000:20000000";
+        String strategy = "incremental";
+        String latency = "uniform:1:20";
+        List<Object> auctioneerArgs = new ArrayList<>(Arrays.asList("lots=32", "deadline=1000", "items=1000000", "seed=42"));
+        for (String arg : args) {
+            if (arg.startsWith("bidders=")) {
+                bidderCount = Integer.parseInt(arg.substring("bidders=".length()));
+            } else if (arg.startsWith("budget=")) {
+                budget = arg.substring("budget=".length());
+            } else if (arg.startsWith("strategy=")) {
+                strategy = arg.substring("strategy=".length());
+            } else if (arg.startsWith("latency=")) {
+                latency = arg.substring("latency=".length());
+            } else {
+                // Later arguments override the defaults
+                auctioneerArgs.add(arg);
+            }
+        }
+        AuctionConfig config = AuctionConfig.fromArguments(auctioneerArgs.toArray());
+        if (config.seed == 0) {
+            throw new IllegalArgumentException("The simulator needs a seed other than 0");
+        }
+
+        long start = System.currentTimeMillis();
+        MarketSimulator market = new MarketSimulator(config, bidderCount, PriceDistribution.parse(budget),
+                BiddingStrategies.forName(strategy), PriceDistribution.parse(latency));
+        market.run();
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        AuctionEngine engine = market.getEngine();
+        System.out.println(engine.report());
+        System.out.println("Messages: " + engine.messageReport());
+        System.out.println(engine.getCloseLatency().toHistogram().stripTrailing());
+        System.out.printf("Revenue %d, checksum %016x%n", market.getRevenue(), market.getChecksum());
+        System.out.printf("%d ms of market time simulated in %d ms (%.0fx real time)%n",
+                market.getVirtualMillis(), elapsed, (double) market.getVirtualMillis() / elapsed);
+    }
+}
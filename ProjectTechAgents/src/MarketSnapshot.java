@@ -0,0 +1,389 @@
+import jade.core.AID;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of the market state: the catalogue, open lots and bidder registry of an
+ * auctioneer (see save() and load()), or the ledger of a bidder or the bidders of a BidderHost.
+ *
+ * A snapshot is [long MAGIC][int VERSION], sections of [byte type][int count][count records],
+ * then [byte END][int crc32 of everything before]. Strings are [short length][UTF-8 bytes].
+ * It is written to a temporary file that replaces the previous snapshot once committed, so a
+ * crash or an error while saving leaves the previous one. It is read through memory-mapped regions,
+ * so a warm start with millions of items costs a sequential read of the file.
+ */
+public class MarketSnapshot {
+
+    static final long MAGIC = 0x4D4B54534E415031L; // "MKTSNAP1"
+    static final int VERSION = 1;
+
+    static final byte END = 0;
+    static final byte CATALOGUE = 1;
+    static final byte OPEN_LOTS = 2;
+    static final byte REGISTRY = 3;
+    static final byte LEDGER = 4;
+    static final byte POOL = 5;
+
+    // Size of the region mapped at once, and of the write buffer
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Save the catalogue (waiting items in queue order, then the items on auction),
+     * the open lots and the known bidders of an auctioneer
+     */
+    public static void save(Path path, LotCatalogue catalogue, Collection<Lot> openLots, BidderRegistry registry) throws IOException {
+        try (Writer out = new Writer(path)) {
+            out.section(CATALOGUE, catalogue.size());
+            catalogue.forEachWaiting(slot -> putItem(out, catalogue, slot));
+            catalogue.forEach(slot -> {
+                if (!catalogue.isWaiting(slot)) {
+                    putItem(out, catalogue, slot);
+                }
+            });
+
+            out.section(OPEN_LOTS, openLots.size());
+            for (Lot lot : openLots) {
+                out.putString(lot.getConversationId());
+                out.putString(lot.getItemName());
+            }
+
+            Map<AID, Long> bidders = registry.getBudgets();
+            out.section(REGISTRY, bidders.size());
+            for (Map.Entry<AID, Long> bidder : bidders.entrySet()) {
+                out.putString(bidder.getKey().getName());
+                out.putLong(bidder.getValue());
+            }
+            out.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void putItem(Writer out, LotCatalogue catalogue, int slot) {
+        out.putString(catalogue.getName(slot));
+        out.putInt(catalogue.getInitialPrice(slot));
+        out.putInt(catalogue.getReservePrice(slot));
+        out.putInt(catalogue.getPriority(slot));
+        out.putLong(catalogue.getStartTime(slot));
+        out.putInt(catalogue.getUnits(slot));
+        out.putLong(catalogue.getSequence(slot));
+    }
+
+    /**
+     * What a warm start found in the snapshot
+     */
+    public static class Restored {
+
+        public int items = 0;
+
+        // The lots that were open when the snapshot was taken (conversation id -> item name).
+        // Their items are back in the catalogue, in the order they were put on auction.
+        public final Map<String, String> openLots = new LinkedHashMap<>();
+
+        public int bidders = 0;
+    }
+
+    /**
+     * Load a snapshot of an auctioneer into an empty catalogue and registry
+     */
+    public static Restored load(Path path, LotCatalogue catalogue, BidderRegistry registry) throws IOException {
+        Restored restored = new Restored();
+        try (Reader in = new Reader(path)) {
+            byte type;
+            while ((type = in.section()) != END) {
+                int count = in.count();
+                switch (type) {
+                    case CATALOGUE:
+                        catalogue.ensureCapacity(count);
+                        for (int i = 0; i < count; i++) {
+                            catalogue.restore(in.getString(), in.getInt(), in.getInt(), in.getInt(), in.getLong(), in.getInt(), in.getLong());
+                        }
+                        restored.items = count;
+                        break;
+                    case OPEN_LOTS:
+                        for (int i = 0; i < count; i++) {
+                            String conversationId = in.getString();
+                            restored.openLots.put(conversationId, in.getString());
+                        }
+                        break;
+                    case REGISTRY:
+                        for (int i = 0; i < count; i++) {
+                            registry.restore(new AID(in.getString(), AID.ISGUID), in.getLong());
+                        }
+                        restored.bidders = count;
+                        break;
+                    default:
+                        throw new IOException("Unknown snapshot section " + type + " in " + path);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return restored;
+    }
+
+    /**
+     * Writes a snapshot through a buffer, computing its checksum on the way.
+     * Closing it without commit() discards it.
+     */
+    public static class Writer implements Closeable {
+
+        private final Path path;
+        private final Path temp;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private boolean committed = false;
+
+        public Writer(Path path) throws IOException {
+            this.path = path;
+            this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putLong(MAGIC).putInt(VERSION);
+        }
+
+        public void section(byte type, int count) {
+            ensure(5);
+            buffer.put(type).putInt(count);
+        }
+
+        public void putInt(int v) {
+            ensure(4);
+            buffer.putInt(v);
+        }
+
+        public void putLong(long v) {
+            ensure(8);
+            buffer.putLong(v);
+        }
+
+        public void putString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                throw new IllegalArgumentException("String too long for a snapshot: " + s.substring(0, 64) + "...");
+            }
+            ensure(2 + bytes.length);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+
+        public void putLongs(long[] a) {
+            for (int i = 0; i < a.length; ) {
+                ensure(8);
+                int n = Math.min(a.length - i, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(a, i, n);
+                buffer.position(buffer.position() + n * 8);
+                i += n;
+            }
+        }
+
+        public void putInts(int[] a) {
+            for (int i = 0; i < a.length; ) {
+                ensure(4);
+                int n = Math.min(a.length - i, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(a, i, n);
+                buffer.position(buffer.position() + n * 4);
+                i += n;
+            }
+        }
+
+        public void putBytes(byte[] a) {
+            for (int i = 0; i < a.length; ) {
+                ensure(1);
+                int n = Math.min(a.length - i, buffer.remaining());
+                buffer.put(a, i, n);
+                i += n;
+            }
+        }
+
+        private void ensure(int n) {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write the snapshot " + temp, e);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Finish the snapshot and put it in place of the previous one
+         */
+        public void commit() throws IOException {
+            ensure(1);
+            buffer.put(END);
+            flush();
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            channel.close();
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot from memory-mapped regions of the file. The checksum is verified when it is opened.
+     */
+    public static class Reader implements Closeable {
+
+        private final Path path;
+        private final FileChannel channel;
+
+        // Where the records end and the checksum starts
+        private final long end;
+
+        private ByteBuffer region;
+        private long regionStart;
+
+        private byte[] scratch = new byte[256];
+        private int count;
+
+        public Reader(Path path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            end = channel.size() - 4;
+            try {
+                verify();
+                map(0, 12);
+                if (region.getLong() != MAGIC || region.getInt() != VERSION) {
+                    throw new IOException(path + " is not a market snapshot");
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // Check the checksum at the end against the rest of the file
+        private void verify() throws IOException {
+            if (end < 12 + 1) {
+                throw new IOException(path + " is not a market snapshot");
+            }
+            CRC32 crc = new CRC32();
+            for (long position = 0; position < end; position += REGION_SIZE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, end - position)));
+            }
+            if (channel.map(FileChannel.MapMode.READ_ONLY, end, 4).getInt() != (int) crc.getValue()) {
+                throw new IOException(path + " is corrupt (bad checksum)");
+            }
+        }
+
+        // Map the records from the given position, at least the given number of bytes
+        private void map(long position, int needed) throws IOException {
+            if (position + needed > end) {
+                throw new IOException(path + " ends in the middle of a record");
+            }
+            regionStart = position;
+            region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(end - position, Math.max(REGION_SIZE, needed)));
+        }
+
+        private void ensure(int n) {
+            if (region.remaining() < n) {
+                try {
+                    map(regionStart + region.position(), n);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot read the snapshot " + path, e);
+                }
+            }
+        }
+
+        /**
+         * The type of the next section (END at the end of the snapshot)
+         */
+        public byte section() {
+            ensure(1);
+            byte type = region.get();
+            if (type != END) {
+                count = getInt();
+            }
+            return type;
+        }
+
+        // The number of records of the current section
+        public int count() {
+            return count;
+        }
+
+        public int getInt() {
+            ensure(4);
+            return region.getInt();
+        }
+
+        public long getLong() {
+            ensure(8);
+            return region.getLong();
+        }
+
+        public String getString() {
+            ensure(2);
+            int length = region.getShort() & 0xffff;
+            ensure(length);
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            region.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        public void getLongs(long[] a) {
+            for (int i = 0; i < a.length; ) {
+                ensure(8);
+                int n = Math.min(a.length - i, region.remaining() / 8);
+                region.asLongBuffer().get(a, i, n);
+                region.position(region.position() + n * 8);
+                i += n;
+            }
+        }
+
+        public void getInts(int[] a) {
+            for (int i = 0; i < a.length; ) {
+                ensure(4);
+                int n = Math.min(a.length - i, region.remaining() / 4);
+                region.asIntBuffer().get(a, i, n);
+                region.position(region.position() + n * 4);
+                i += n;
+            }
+        }
+
+        public void getBytes(byte[] a) {
+            for (int i = 0; i < a.length; ) {
+                ensure(1);
+                int n = Math.min(a.length - i, region.remaining());
+                region.get(a, i, n);
+                i += n;
+            }
+        }
+
+        public void close() throws IOException {
+            region = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The single receiving behaviour of an agent. Every time it runs it drains the whole mailbox once and
+ * hands each message to the handler of its conversation (e.g. the open lot it replies to), or else to
+ * the handler of its performative: a hash map and an array lookup instead of every behaviour scanning
+ * the mailbox with its own template on every wake-up.
+ * Messages no handler takes, such as the DF notifications of a SubscriptionInitiator, are put back
+ * in the mailbox in their original order for the behaviours that still receive with a template.
+ */
+public class MessageDispatcher extends CyclicBehaviour {
+
+    /**
+     * Handles the messages of a conversation or of a performative, on the agent thread
+     */
+    public interface Handler {
+
+        // False if the message is not for this handler after all
+        boolean handle(ACLMessage msg);
+    }
+
+    // The performatives are small ints (ACLMessage.ACCEPT_PROPOSAL = 0 ...)
+    private static final int PERFORMATIVES = 32;
+
+    private final Map<String, Handler> conversations = new HashMap<>();
+    private final Handler[] performatives = new Handler[PERFORMATIVES];
+
+    // The messages of the current action nobody handled
+    private final List<ACLMessage> unhandled = new ArrayList<>();
+
+    private long dispatched = 0;
+
+    public MessageDispatcher(Agent agent) {
+        super(agent);
+    }
+
+    /**
+     * Handle the messages of a performative that no conversation handler takes
+     */
+    public void on(int performative, Handler handler) {
+        performatives[performative] = handler;
+    }
+
+    /**
+     * Handle the messages of a conversation, until it is unregistered
+     */
+    public void register(String conversationId, Handler handler) {
+        conversations.put(conversationId, handler);
+    }
+
+    public void unregister(String conversationId) {
+        conversations.remove(conversationId);
+    }
+
+    public int getConversationCount() {
+        return conversations.size();
+    }
+
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    public void action() {
+        ACLMessage msg;
+        while ((msg = myAgent.receive()) != null) {
+            if (!dispatch(msg)) {
+                unhandled.add(msg);
+            }
+        }
+        // putBack() adds to the head of the mailbox
+        for (int i = unhandled.size() - 1; i >= 0; i--) {
+            myAgent.putBack(unhandled.get(i));
+        }
+        unhandled.clear();
+        block();
+    }
+
+    /**
+     * Hand a message to its handler, false if there is none
+     */
+    public boolean dispatch(ACLMessage msg) {
+        String conversationId = msg.getConversationId();
+        if (conversationId != null) {
+            Handler handler = conversations.get(conversationId);
+            if (handler != null && handler.handle(msg)) {
+                dispatched++;
+                return true;
+            }
+        }
+        int performative = msg.getPerformative();
+        if (performative >= 0 && performative < PERFORMATIVES) {
+            Handler handler = performatives[performative];
+            if (handler != null && handler.handle(msg)) {
+                dispatched++;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.random.RandomGenerator;
+
+/**
+ * A distribution of prices, written as "uniform:min:max", "normal:mean:stddev",
+ * "lognormal:median:sigma" or "fixed:price". Samples are never negative.
+ */
+public class PriceDistribution {
+
+    private final String kind;
+    private final double a;
+    private final double b;
+
+    public PriceDistribution(String kind, double a, double b) {
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+    }
+
+    public static PriceDistribution parse(String spec) {
+        String[] parts = spec.split(":");
+        double a = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+        double b = parts.length > 2 ? Double.parseDouble(parts[2]) : a;
+        switch (parts[0]) {
+            case "uniform":
+            case "normal":
+            case "lognormal":
+            case "fixed":
+                return new PriceDistribution(parts[0], a, b);
+            default:
+                throw new IllegalArgumentException("Unknown price distribution " + spec);
+        }
+    }
+
+    public int sample(RandomGenerator rn) {
+        double value;
+        switch (kind) {
+            case "uniform":
+                value = a + rn.nextDouble() * (b - a);
+                break;
+            case "normal":
+                value = a + rn.nextGaussian() * b;
+                break;
+            case "lognormal":
+                value = a * Math.exp(rn.nextGaussian() * b);
+                break;
+            default:
+                value = a;
+        }
+        return (int) Math.max(0, Math.round(value));
+    }
+
+    @Override
+    public String toString() {
+        return kind + ":" + a + ":" + b;
+    }
+}
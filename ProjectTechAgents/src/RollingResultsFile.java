@@ -0,0 +1,102 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the results of an auctioneer to <base>-1.log, <base>-2.log, ..., one line each
+ * (see AuctionResult.toString), starting a new file once the current one reaches maxBytes.
+ * It requests BATCH results at a time and flushes the file after each batch.
+ */
+public class RollingResultsFile implements Flow.Subscriber<AuctionResult> {
+
+    private static final int BATCH = 256;
+
+    private final String base;
+    private final long maxBytes;
+
+    private Flow.Subscription subscription;
+    private BufferedWriter writer;
+    private int fileIndex = 0;
+    private long fileBytes = 0;
+    private int pending = 0;
+    private long written = 0;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    public RollingResultsFile(String base, long maxBytes) {
+        this.base = base;
+        this.maxBytes = maxBytes;
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        pending = BATCH;
+        subscription.request(BATCH);
+    }
+
+    public void onNext(AuctionResult result) {
+        try {
+            String line = result.toString() + "\n";
+            if (writer == null || fileBytes >= maxBytes) {
+                roll();
+            }
+            writer.write(line);
+            fileBytes += line.length();
+            written++;
+            if (--pending == 0) {
+                writer.flush();
+                pending = BATCH;
+                subscription.request(BATCH);
+            }
+        } catch (IOException e) {
+            AuctionLog.error("Cannot write the results to " + base, e);
+            subscription.cancel();
+            close();
+        }
+    }
+
+    private void roll() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        Path path = Path.of(base + "-" + (++fileIndex) + ".log");
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        fileBytes = 0;
+    }
+
+    public void onError(Throwable t) {
+        AuctionLog.error("Results stream failed", t);
+        close();
+    }
+
+    public void onComplete() {
+        close();
+    }
+
+    private void close() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            AuctionLog.error("Cannot close the results file", e);
+        }
+        done.countDown();
+    }
+
+    /**
+     * Wait (at most the given time, ms) until the results of a completed stream are written
+     */
+    public boolean awaitClose(long timeout) throws InterruptedException {
+        return done.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public long getWritten() {
+        return written;
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.Serializable;
+
+/**
+ * Progress of one shard of a sharded auction, sent by the shard to the coordinator.
+ * Reports of several shards are merged into one.
+ */
+public class ShardReport implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public int shard;
+    public boolean done;
+
+    public long startedAt;
+    public long reportedAt;
+
+    public long lotsClosed;
+    public long lotsSold;
+    public long bids;
+    public long messages;
+
+    public LatencyHistogram closeLatency = new LatencyHistogram("us");
+
+    public static ShardReport from(int shard, AuctionEngine engine, boolean done) {
+        ShardReport report = new ShardReport();
+        report.shard = shard;
+        report.done = done;
+        report.startedAt = engine.getStartedAt();
+        report.reportedAt = System.currentTimeMillis();
+        report.lotsClosed = engine.getLotsClosed();
+        report.lotsSold = engine.getLotsSold();
+        report.bids = engine.getBidsReceived();
+        report.messages = engine.getMessagesSent() + engine.getMessagesReceived();
+        report.closeLatency.merge(engine.getCloseLatency());
+        return report;
+    }
+
+    /**
+     * Add the counters of another report to this one
+     */
+    public void merge(ShardReport other) {
+        if (other.startedAt != 0 && (startedAt == 0 || other.startedAt < startedAt)) {
+            startedAt = other.startedAt;
+        }
+        reportedAt = Math.max(reportedAt, other.reportedAt);
+        lotsClosed += other.lotsClosed;
+        lotsSold += other.lotsSold;
+        bids += other.bids;
+        messages += other.messages;
+        closeLatency.merge(other.closeLatency);
+    }
+
+    public double getLotsPerSecond() {
+        long elapsed = Math.max(1, reportedAt - startedAt);
+        return startedAt == 0 ? 0 : lotsClosed * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        long elapsed = Math.max(1, reportedAt - startedAt);
+        return String.format("%d lots closed (%d sold), %d bids, %d messages, %.2f lots/s, %.1f bids/s, CFP to award: %s",
+                lotsClosed, lotsSold, bids, messages, getLotsPerSecond(),
+                startedAt == 0 ? 0.0 : bids * 1000.0 / elapsed, closeLatency);
+    }
+}
@@ -0,0 +1,126 @@
+import jade.core.AID;
+
+/**
+ * The k highest bids of a lot, in memory that does not grow with the number of bidders.
+ * The bids are kept in a min-heap, so a new bid only has to beat the lowest one kept.
+ * Of two equal bids the earlier one ranks higher.
+ */
+public class TopBids {
+
+    private final int[] prices;
+    private final int[] arrivals;
+    private final AID[] bidders;
+    private int size = 0;
+    private int arrival = 0;
+
+    // Set once the bids are sorted for the clearing, no more bids are taken then
+    private boolean sorted = false;
+
+    public TopBids(int capacity) {
+        prices = new int[capacity];
+        arrivals = new int[capacity];
+        bidders = new AID[capacity];
+    }
+
+    public int getCapacity() {
+        return prices.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void offer(AID bidder, int price) {
+        if (sorted) {
+            throw new IllegalStateException("The bids are already cleared");
+        }
+        int seq = arrival++;
+        if (size < prices.length) {
+            set(size, price, seq, bidder);
+            siftUp(size++);
+        } else if (size > 0 && price > prices[0]) {
+            // Replaces the lowest bid kept (an equal one came first and stays)
+            set(0, price, seq, bidder);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Sort the bids from the highest down, for getPrice/getBidder by rank
+     */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+        // Heap sort: the lowest bid goes to the end, and so on
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    // The price of the bid of the given rank (0 is the highest), after sort()
+    public int getPrice(int rank) {
+        return prices[rank];
+    }
+
+    public AID getBidder(int rank) {
+        return bidders[rank];
+    }
+
+    private void set(int i, int price, int seq, AID bidder) {
+        prices[i] = price;
+        arrivals[i] = seq;
+        bidders[i] = bidder;
+    }
+
+    // Whether the bid at i ranks below the one at j
+    private boolean lower(int i, int j) {
+        return prices[i] < prices[j] || (prices[i] == prices[j] && arrivals[i] > arrivals[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!lower(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        siftDown(i, size);
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && lower(child + 1, child)) {
+                child++;
+            }
+            if (!lower(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int price = prices[i];
+        prices[i] = prices[j];
+        prices[j] = price;
+        int seq = arrivals[i];
+        arrivals[i] = arrivals[j];
+        arrivals[j] = seq;
+        AID bidder = bidders[i];
+        bidders[i] = bidders[j];
+        bidders[j] = bidder;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * A clock that stands still until it is advanced, so a simulation can jump from one event to the
+ * next instead of waiting for it. It starts at 0 (epoch) and only goes forward.
+ */
+public class VirtualClock implements AuctionClock {
+
+    private long nanos = 0;
+
+    public long millis() {
+        return nanos / 1000000;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+
+    /**
+     * Move the clock to the given time (ns), if it is not already past it
+     */
+    public void advanceTo(long nanos) {
+        if (nanos > this.nanos) {
+            this.nanos = nanos;
+        }
+    }
+
+    public void advance(long millis) {
+        nanos += millis * 1000000;
+    }
+}
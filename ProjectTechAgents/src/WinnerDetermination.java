@@ -0,0 +1,289 @@
+import jade.core.AID;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Winner determination of a bundle auction: the bids that maximise the revenue, such that no item
+ * is sold twice and every bidder wins at most one of its bids (XOR bids). A bid below the sum of
+ * the minimum prices (initial or reserve) of its items is never accepted.
+ * Branch and bound over the bids by decreasing price. Every choice of the first bid of a solution
+ * is a fork-join task. The search stops at the time budget with the best solution found so far,
+ * which is never worse than the greedy one it starts from.
+ */
+public class WinnerDetermination {
+
+    // How many nodes a task explores between two checks of the deadline
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final Bundle bundle;
+    private final ForkJoinPool pool;
+
+    // The acceptable bids by decreasing price, their items (bit sets) and bidders (indexes)
+    private BundleBid[] bids;
+    private long[][] masks;
+    private int[] bidderOf;
+    private int bidderCount;
+
+    // Bounds: the sum of the prices of bids k.. (suffix), and the best price share of every item
+    // summed over the items of every bid (a solution never gets more than the shares of the items it sells)
+    private long[] suffix;
+    private double[] coveredShare;
+    private double totalShare;
+
+    private long deadline;
+    private volatile boolean timedOut;
+
+    // The best solution so far (indexes in bids)
+    private long bestRevenue;
+    private int[] best = new int[0];
+    private long nodes;
+
+    public WinnerDetermination(Bundle bundle, ForkJoinPool pool) {
+        this.bundle = bundle;
+        this.pool = pool;
+    }
+
+    /**
+     * The winning bids, found within the given time (ms)
+     */
+    public Result solve(long budget) {
+        deadline = System.nanoTime() + budget * 1000000;
+        long startedAt = System.nanoTime();
+        prepare();
+        greedy();
+        List<Branch> branches = new ArrayList<>();
+        for (int k = 0; k < bids.length; k++) {
+            branches.add(new Branch(k));
+        }
+        pool.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(branches);
+            }
+        });
+
+        List<BundleBid> winners = new ArrayList<>();
+        for (int k : best) {
+            winners.add(bids[k]);
+        }
+        return new Result(winners, bestRevenue, !timedOut, nodes, (System.nanoTime() - startedAt) / 1000);
+    }
+
+    // Drop the bids below their minimum price and sort the others
+    private void prepare() {
+        int itemCount = bundle.size();
+        List<BundleBid> acceptable = new ArrayList<>();
+        for (BundleBid bid : bundle.getBids()) {
+            long minimum = 0;
+            boolean distinct = true;
+            BitSet seen = new BitSet(itemCount);
+            for (int item : bid.getItems()) {
+                minimum += bundle.getMinimumPrice(item);
+                distinct &= !seen.get(item);
+                seen.set(item);
+            }
+            if (distinct && bid.getItems().length > 0 && bid.getPrice() >= minimum) {
+                acceptable.add(bid);
+            }
+        }
+        acceptable.sort((a, b) -> Integer.compare(b.getPrice(), a.getPrice()));
+        bids = acceptable.toArray(new BundleBid[0]);
+
+        int n = bids.length;
+        int words = (itemCount + 63) / 64;
+        masks = new long[n][words];
+        bidderOf = new int[n];
+        suffix = new long[n + 1];
+        coveredShare = new double[n];
+        Map<AID, Integer> bidders = new HashMap<>();
+        double[] share = new double[itemCount];
+        for (int k = 0; k < n; k++) {
+            int[] items = bids[k].getItems();
+            for (int item : items) {
+                masks[k][item >>> 6] |= 1L << item;
+                share[item] = Math.max(share[item], (double) bids[k].getPrice() / items.length);
+            }
+            Integer index = bidders.putIfAbsent(bids[k].getBidder(), bidders.size());
+            bidderOf[k] = index == null ? bidders.size() - 1 : index;
+        }
+        bidderCount = bidders.size();
+        for (int k = n - 1; k >= 0; k--) {
+            suffix[k] = suffix[k + 1] + bids[k].getPrice();
+            for (int item : bids[k].getItems()) {
+                coveredShare[k] += share[item];
+            }
+        }
+        totalShare = 0;
+        for (double s : share) {
+            totalShare += s;
+        }
+    }
+
+    // The first solution: the highest bids that fit
+    private void greedy() {
+        State state = new State();
+        for (int k = 0; k < bids.length; k++) {
+            if (state.fits(k)) {
+                state.include(k);
+            }
+        }
+        record(state);
+    }
+
+    private synchronized void record(State state) {
+        if (state.revenue > bestRevenue) {
+            bestRevenue = state.revenue;
+            best = Arrays.copyOf(state.chosen, state.depth);
+        }
+    }
+
+    private synchronized long getBestRevenue() {
+        return bestRevenue;
+    }
+
+    private synchronized void countNodes(long count) {
+        nodes += count;
+    }
+
+    /**
+     * The items and bidders taken by a partial solution
+     */
+    private class State {
+
+        final long[] items = new long[masks.length == 0 ? 0 : masks[0].length];
+        final boolean[] bidders = new boolean[bidderCount];
+        final int[] chosen = new int[Math.min(bidderCount, bundle.size())];
+        int depth;
+        long revenue;
+        double freeShare = totalShare;
+
+        boolean fits(int k) {
+            if (bidders[bidderOf[k]]) {
+                return false;
+            }
+            long[] mask = masks[k];
+            for (int w = 0; w < mask.length; w++) {
+                if ((items[w] & mask[w]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void include(int k) {
+            long[] mask = masks[k];
+            for (int w = 0; w < mask.length; w++) {
+                items[w] |= mask[w];
+            }
+            bidders[bidderOf[k]] = true;
+            chosen[depth++] = k;
+            revenue += bids[k].getPrice();
+            freeShare -= coveredShare[k];
+        }
+
+        void exclude(int k) {
+            long[] mask = masks[k];
+            for (int w = 0; w < mask.length; w++) {
+                items[w] &= ~mask[w];
+            }
+            bidders[bidderOf[k]] = false;
+            depth--;
+            revenue -= bids[k].getPrice();
+            freeShare += coveredShare[k];
+        }
+    }
+
+    /**
+     * The solutions whose highest bid is bid first
+     */
+    private class Branch extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int first;
+        private State state;
+        private long explored;
+        private long bound;
+
+        Branch(int first) {
+            this.first = first;
+        }
+
+        protected void compute() {
+            if (timedOut) {
+                return;
+            }
+            state = new State();
+            bound = getBestRevenue();
+            if (bids[first].getPrice() + Math.min(suffix[first + 1], totalShare - coveredShare[first]) > bound) {
+                state.include(first);
+                search(first + 1);
+            }
+            countNodes(explored);
+        }
+
+        private void search(int from) {
+            if (state.revenue > bound) {
+                record(state);
+                bound = getBestRevenue();
+            }
+            for (int k = from; k < bids.length; k++) {
+                if (++explored % CHECK_INTERVAL == 0) {
+                    bound = getBestRevenue();
+                    if (System.nanoTime() > deadline) {
+                        timedOut = true;
+                    }
+                }
+                if (timedOut || state.revenue + Math.min(suffix[k], state.freeShare) <= bound) {
+                    // The bids left are too low to beat the best solution (suffix only decreases)
+                    return;
+                }
+                if (state.fits(k)) {
+                    state.include(k);
+                    search(k + 1);
+                    state.exclude(k);
+                }
+            }
+        }
+    }
+
+    /**
+     * The outcome of the winner determination
+     */
+    public static class Result {
+
+        private final List<BundleBid> winners;
+        private final long revenue;
+        private final boolean optimal;
+        private final long nodes;
+        private final long micros;
+
+        Result(List<BundleBid> winners, long revenue, boolean optimal, long nodes, long micros) {
+            this.winners = winners;
+            this.revenue = revenue;
+            this.optimal = optimal;
+            this.nodes = nodes;
+            this.micros = micros;
+        }
+
+        public List<BundleBid> getWinners() {
+            return winners;
+        }
+
+        public long getRevenue() {
+            return revenue;
+        }
+
+        // False if the time budget ran out before the search was complete
+        public boolean isOptimal() {
+            return optimal;
+        }
+
+        @Override
+        public String toString() {
+            return winners.size() + " winning bids, revenue " + revenue + (optimal ? " (optimal" : " (time budget exceeded")
+                    + ", " + nodes + " nodes in " + micros + " us)";
+        }
+    }
+}